@@ -0,0 +1,120 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Base of scalers that fill the scaled image in bands of rows that do not
+ * depend on each other. Sources of at least the parallel scaling threshold of
+ * ImageTools are split into bands that are scaled in the common ForkJoinPool,
+ * smaller sources are scaled in a single band by the calling thread. Bands
+ * produce the same pixels either way.
+ */
+
+abstract class BandedImageScaler implements ImageScaler {
+
+	private static final long serialVersionUID = 8230515407693139566L;
+
+	/**
+	 * Bands per worker thread, more than one so that workers that finish
+	 * early can help with the rest
+	 */
+
+	private static final int BANDS_PER_THREAD = 2;
+
+	@Override
+	public BufferedImage scale(BufferedImage source, int width, int height,
+			boolean alpha) {
+		BufferedImage scaledImage = RasterImageScaler.createImage(width,
+				height, alpha);
+
+		int bands = countBands(source, height);
+
+		if (bands > 1) {
+			ForkJoinPool.commonPool().invoke(
+					new Band(this, source, scaledImage, 0, height,
+							(height + bands - 1) / bands, alpha));
+		} else {
+			scaleBand(source, scaledImage, 0, height, alpha);
+		}
+
+		return scaledImage;
+	}
+
+	/**
+	 * Fills rows from top to bottom of given scaled image. May be called
+	 * concurrently for different bands of the same image.
+	 *
+	 * @param source
+	 * @param scaledImage
+	 *            image created with RasterImageScaler.createImage
+	 * @param top
+	 *            first row of the band
+	 * @param bottom
+	 *            row after the last row of the band
+	 * @param alpha
+	 */
+
+	abstract void scaleBand(BufferedImage source, BufferedImage scaledImage,
+			int top, int bottom, boolean alpha);
+
+	/**
+	 * @return number of bands the scaled image of given source is split to
+	 */
+
+	static int countBands(BufferedImage source, int height) {
+		long pixels = (long) source.getWidth() * source.getHeight();
+		int parallelism = ForkJoinPool.getCommonPoolParallelism();
+
+		if (pixels < ImageTools.getParallelScalingThreshold()
+				|| parallelism < 2) {
+			return 1;
+		}
+
+		return Math.min(height, parallelism * BANDS_PER_THREAD);
+	}
+
+	/**
+	 * Splits its rows in halves until they fit to a single band
+	 */
+
+	private static final class Band extends RecursiveAction {
+
+		private static final long serialVersionUID = -3389470409806926135L;
+
+		private final transient BandedImageScaler scaler;
+		private final transient BufferedImage source;
+		private final transient BufferedImage target;
+		private final int top;
+		private final int bottom;
+		private final int rows;
+		private final boolean alpha;
+
+		private Band(BandedImageScaler scaler, BufferedImage source,
+				BufferedImage target, int top, int bottom, int rows,
+				boolean alpha) {
+			this.scaler = scaler;
+			this.source = source;
+			this.target = target;
+			this.top = top;
+			this.bottom = bottom;
+			this.rows = rows;
+			this.alpha = alpha;
+		}
+
+		@Override
+		protected void compute() {
+			if (bottom - top <= rows) {
+				scaler.scaleBand(source, target, top, bottom, alpha);
+				return;
+			}
+
+			int middle = top + (bottom - top) / 2;
+
+			invokeAll(new Band(scaler, source, target, top, middle, rows,
+					alpha), new Band(scaler, source, target, middle, bottom,
+					rows, alpha));
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales images by averaging the block of source pixels each scaled pixel
+ * covers. Blocks are aligned to whole source pixels so that the filter only
+ * needs integer arithmetic. Colors are weighted by alpha so that transparent
+ * pixels do not darken the edges of opaque ones.
+ */
+
+class BoxImageScaler extends RasterImageScaler {
+
+	private static final long serialVersionUID = -4535911808785466104L;
+
+	@Override
+	public String getName() {
+		return "box";
+	}
+
+	@Override
+	void scaleBand(BufferedImage source, BufferedImage scaledImage, int top,
+			int bottom, boolean alpha) {
+		int sourceWidth = source.getWidth();
+		int sourceHeight = source.getHeight();
+		int width = scaledImage.getWidth();
+		int height = scaledImage.getHeight();
+
+		int[] target = pixelsOf(scaledImage);
+
+		// First source column of each scaled column, blocks are at least
+		// one pixel wide when enlarging
+		int[] starts = new int[width + 1];
+		for (int x = 0; x <= width; x++) {
+			starts[x] = (int) ((long) x * sourceWidth / width);
+		}
+
+		long[] red = new long[width];
+		long[] green = new long[width];
+		long[] blue = new long[width];
+		long[] alphas = new long[width];
+		long[] weights = new long[width];
+
+		Rows rows = new Rows(source);
+
+		for (int y = top; y < bottom; y++) {
+			int sourceTop = (int) ((long) y * sourceHeight / height);
+			int sourceBottom = Math.max(sourceTop + 1,
+					(int) ((long) (y + 1) * sourceHeight / height));
+
+			for (int sy = sourceTop; sy < sourceBottom; sy++) {
+				int offset = rows.read(sy);
+				int[] pixels = rows.pixels();
+
+				for (int x = 0; x < width; x++) {
+					int end = Math.max(starts[x] + 1, starts[x + 1]);
+
+					for (int sx = starts[x]; sx < end; sx++) {
+						int pixel = pixels[offset + sx];
+						int weight = alpha ? pixel >>> 24 : 1;
+
+						red[x] += ((pixel >> 16) & 0xff) * weight;
+						green[x] += ((pixel >> 8) & 0xff) * weight;
+						blue[x] += (pixel & 0xff) * weight;
+						alphas[x] += pixel >>> 24;
+						weights[x] += weight;
+					}
+				}
+			}
+
+			int index = y * width;
+
+			for (int x = 0; x < width; x++) {
+				long count = (long) (sourceBottom - sourceTop)
+						* Math.max(1, starts[x + 1] - starts[x]);
+				long weight = weights[x];
+
+				int a = alpha ? (int) (alphas[x] / count) : 0xff;
+				int r = weight > 0 ? (int) (red[x] / weight) : 0;
+				int g = weight > 0 ? (int) (green[x] / weight) : 0;
+				int b = weight > 0 ? (int) (blue[x] / weight) : 0;
+
+				target[index + x] = (a << 24) | (r << 16) | (g << 8) | b;
+
+				red[x] = green[x] = blue[x] = alphas[x] = weights[x] = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,390 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * DirectoryThumbnailStore is a persistent, content addressed store for scaled
+ * images.
+ * Each scaled image is written to the store directory using a file name that
+ * is derived from a hash of its ThumbnailKey, so the same source scaled with
+ * the same parameters always maps to the same file, also after a restart.
+ *
+ * The index of stored files is built lazily by scanning the store directory
+ * when the store is accessed for the first time. Files missing from the index
+ * are still looked up from the directory, so thumbnails written later by
+ * another process sharing the directory are found too.
+ *
+ * Every lookup sets the access time of the file, also on file systems that
+ * do not update it on reads, so that ThumbnailJanitor can tell thumbnails
+ * that are still used from ones that were written long ago.
+ *
+ * Size and modification time of the source file are kept in a user defined
+ * attribute of the thumbnail file where the file system supports them, so
+ * that a source replaced while the application was down is noticed.
+ */
+
+public class DirectoryThumbnailStore implements ThumbnailStore {
+
+	/**
+	 * Suffix of files that are still being written
+	 */
+
+	static final String PARTIAL_SUFFIX = ".part";
+
+	/**
+	 * Names of stored thumbnails: hex digest of the key and the format
+	 */
+
+	private static final Pattern STORED_NAME = Pattern
+			.compile("[0-9a-f]{40}\\.[a-z0-9]+");
+
+	/**
+	 * Name of the attribute holding size and modification time of the source
+	 */
+
+	private static final String SOURCE_ATTRIBUTE = "imagestrip.source";
+
+	private final File directory;
+
+	/**
+	 * Stored files by their name, null until the directory is scanned
+	 */
+
+	private volatile Map<String, File> index;
+
+	/**
+	 * Creates a store that keeps its files in given directory. Directory is
+	 * created if it does not exist yet.
+	 *
+	 * @param directory
+	 */
+
+	public DirectoryThumbnailStore(File directory) {
+		if (directory == null) {
+			throw new IllegalArgumentException(
+					"Store directory must be given");
+		}
+
+		this.directory = directory;
+	}
+
+	/**
+	 * @return directory where this store keeps its files
+	 */
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Looks up stored thumbnail for given key and marks it accessed.
+	 * Dimensions of the stored image are read from its header.
+	 *
+	 * @param key
+	 * @return stored thumbnail for given key or null if the key has not been
+	 *         stored or if the stored file cannot be read
+	 */
+
+	@Override
+	public Thumbnail get(ThumbnailKey key) {
+		String name = fileName(key);
+		File file = getIndex().get(name);
+
+		if (file == null) {
+			// Written by another process after the directory was scanned
+			file = new File(directory, name);
+
+			if (!file.isFile()) {
+				return null;
+			}
+
+			getIndex().put(name, file);
+		}
+
+		if (!file.exists()) {
+			getIndex().remove(name);
+			return null;
+		}
+
+		try {
+			Dimension size = ImageTools.getImageDimension(file);
+			touch(file);
+
+			long[] source = readSource(file);
+
+			return new Thumbnail(this, key, file, size.width, size.height,
+					file.length(), source[0], source[1]);
+		} catch (ImageToolsException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Sets the access time of given file to now
+	 */
+
+	private static void touch(File file) {
+		try {
+			Files.getFileAttributeView(file.toPath(),
+					BasicFileAttributeView.class).setTimes(null,
+					FileTime.fromMillis(System.currentTimeMillis()), null);
+		} catch (IOException ignored) {
+			// Janitor falls back to the time the file was written
+		}
+	}
+
+	/**
+	 * @return size and modification time of the source stored with given
+	 *         file, -1 for both if they were not stored
+	 */
+
+	private static long[] readSource(File file) {
+		UserDefinedFileAttributeView view = Files.getFileAttributeView(
+				file.toPath(), UserDefinedFileAttributeView.class);
+
+		if (view != null) {
+			try {
+				ByteBuffer buffer = ByteBuffer.allocate(16);
+				if (view.read(SOURCE_ATTRIBUTE, buffer) == 16) {
+					buffer.flip();
+					return new long[] { buffer.getLong(), buffer.getLong() };
+				}
+			} catch (IOException | UnsupportedOperationException ignored) {
+				// Not stored or not supported by the file system
+			}
+		}
+
+		return new long[] { -1, -1 };
+	}
+
+	/**
+	 * Stores size and modification time of the source with given file if
+	 * the file system supports user defined attributes
+	 */
+
+	private static void writeSource(File file, long sourceLength,
+			long sourceModified) {
+		UserDefinedFileAttributeView view = Files.getFileAttributeView(
+				file.toPath(), UserDefinedFileAttributeView.class);
+
+		if (view == null || sourceLength < 0) {
+			return;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		buffer.putLong(sourceLength);
+		buffer.putLong(sourceModified);
+		buffer.flip();
+
+		try {
+			view.write(SOURCE_ATTRIBUTE, buffer);
+		} catch (IOException | UnsupportedOperationException ignored) {
+			// ImageTools falls back to the modification time of the file
+		}
+	}
+
+	@Override
+	public Thumbnail put(ThumbnailKey key, byte[] data, int width, int height)
+			throws IOException {
+		return put(key, data, width, height, -1, -1);
+	}
+
+	/**
+	 * Writes given encoded image to the store. Image is first written to a
+	 * partial file which is then moved in place, so readers never see a
+	 * half-written image.
+	 *
+	 * @param key
+	 * @param data
+	 * @param width
+	 * @param height
+	 * @param sourceLength
+	 * @param sourceModified
+	 * @return stored thumbnail
+	 * @throws IOException
+	 *             if writing the image fails
+	 */
+
+	@Override
+	public Thumbnail put(ThumbnailKey key, byte[] data, int width,
+			int height, long sourceLength, long sourceModified)
+			throws IOException {
+
+		ensureDirectory();
+
+		String name = fileName(key);
+		File target = new File(directory, name);
+		File partial = File.createTempFile(name, PARTIAL_SUFFIX, directory);
+
+		FileOutputStream output = null;
+
+		try {
+			output = new FileOutputStream(partial);
+			output.write(data);
+		} catch (IOException e) {
+			partial.delete();
+			throw e;
+		} finally {
+			if (output != null) {
+				try {
+					output.close();
+				} catch (Exception ignored) {
+					// NOP
+				}
+			}
+		}
+
+		writeSource(partial, sourceLength, sourceModified);
+		moveInPlace(partial, target);
+		getIndex().put(name, target);
+
+		return new Thumbnail(this, key, target, width, height, data.length,
+				sourceLength, sourceModified);
+	}
+
+	@Override
+	public boolean isPersistent() {
+		return true;
+	}
+
+	@Override
+	public boolean contains(Thumbnail thumbnail) {
+		return thumbnail.getFile() != null && thumbnail.getFile().exists();
+	}
+
+	@Override
+	public InputStream openStream(Thumbnail thumbnail) throws IOException {
+		return new FileInputStream(thumbnail.getFile());
+	}
+
+	@Override
+	public void remove(Thumbnail thumbnail) {
+		File file = thumbnail.getFile();
+
+		if (file != null) {
+			getIndex().remove(file.getName());
+			file.delete();
+		}
+	}
+
+	/**
+	 * @return number of files in this store
+	 */
+
+	public int size() {
+		return getIndex().size();
+	}
+
+	/**
+	 * Deletes given file of this store whether or not a thumbnail of it is
+	 * still in use
+	 *
+	 * @param file
+	 * @return true if the file was deleted
+	 */
+
+	boolean delete(File file) {
+		getIndex().remove(file.getName());
+		return file.delete();
+	}
+
+	/**
+	 * @param key
+	 * @return name of the file given key is stored to
+	 */
+
+	String fileName(ThumbnailKey key) {
+		return key.getDigest() + "." + key.getFormat();
+	}
+
+	/**
+	 * @param name
+	 * @return true if given file name is one this store writes thumbnails
+	 *         to
+	 */
+
+	static boolean isStoredName(String name) {
+		return STORED_NAME.matcher(name).matches();
+	}
+
+	/**
+	 * @param name
+	 * @return true if given file name is one this store writes thumbnails
+	 *         to before moving them in place
+	 */
+
+	static boolean isPartialName(String name) {
+		// Temporary files append a random number to the stored name, which
+		// the pattern of the format takes in
+		return name.endsWith(PARTIAL_SUFFIX)
+				&& isStoredName(name.substring(0, name.length()
+						- PARTIAL_SUFFIX.length()));
+	}
+
+	private Map<String, File> getIndex() {
+		Map<String, File> result = index;
+
+		if (result == null) {
+			synchronized (this) {
+				result = index;
+
+				if (result == null) {
+					result = scanDirectory();
+					index = result;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private Map<String, File> scanDirectory() {
+		Map<String, File> files = new ConcurrentHashMap<String, File>();
+		File[] existing = directory.listFiles();
+
+		if (existing != null) {
+			for (File file : existing) {
+				if (file.isFile() && isStoredName(file.getName())) {
+					files.put(file.getName(), file);
+				}
+			}
+		}
+
+		return files;
+	}
+
+	private void ensureDirectory() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()
+				&& !directory.isDirectory()) {
+			throw new IOException("Unable to create thumbnail directory "
+					+ directory.getAbsolutePath());
+		}
+	}
+
+	private static void moveInPlace(File source, File target)
+			throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package org.vaadin.peter.imagestrip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Finds the thumbnail cameras embed to the EXIF APP1 segment of JPEG images.
+ * The JPEG reader of the JDK only exposes JFIF thumbnails, so the segment is
+ * parsed here: the thumbnail is the JPEG stream that the second image file
+ * directory of the EXIF data points to.
+ */
+
+final class ExifThumbnailReader {
+
+	private static final int SOI = 0xffd8;
+	private static final int APP1 = 0xffe1;
+	private static final int SOS = 0xffda;
+	private static final int EOI = 0xffd9;
+
+	private static final byte[] EXIF_HEADER = { 'E', 'x', 'i', 'f', 0, 0 };
+
+	private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+	private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+	private static final int TYPE_SHORT = 3;
+
+	private ExifThumbnailReader() {
+		// Static helpers only
+	}
+
+	/**
+	 * Reads the encoded EXIF thumbnail from the beginning of given JPEG
+	 * stream. Only the marker segments before the image data are read,
+	 * position of the stream is left after them.
+	 * 
+	 * @param input
+	 * @return encoded JPEG thumbnail or null if there is none
+	 * @throws IOException
+	 *             if reading the stream fails
+	 */
+
+	static byte[] read(ImageInputStream input) throws IOException {
+		input.setByteOrder(ByteOrder.BIG_ENDIAN);
+
+		if (input.readUnsignedShort() != SOI) {
+			return null;
+		}
+
+		while (true) {
+			int marker = input.readUnsignedShort();
+
+			if ((marker & 0xff00) != 0xff00 || marker == SOS || marker == EOI) {
+				return null;
+			}
+
+			int length = input.readUnsignedShort() - 2;
+			long start = input.getStreamPosition();
+
+			if (marker == APP1 && length > EXIF_HEADER.length) {
+				byte[] segment = new byte[length];
+				input.readFully(segment);
+
+				if (Arrays.equals(EXIF_HEADER,
+						Arrays.copyOf(segment, EXIF_HEADER.length))) {
+					return readThumbnail(Arrays.copyOfRange(segment,
+							EXIF_HEADER.length, segment.length));
+				}
+			}
+
+			input.seek(start + length);
+		}
+	}
+
+	/**
+	 * @param tiff
+	 *            TIFF structure of the EXIF segment
+	 * @return thumbnail bytes that IFD1 points to or null if there is none
+	 */
+
+	private static byte[] readThumbnail(byte[] tiff) {
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(tiff);
+			buffer.order(tiff[0] == 'I' ? ByteOrder.LITTLE_ENDIAN
+					: ByteOrder.BIG_ENDIAN);
+
+			if (buffer.getShort(2) != 42) {
+				return null;
+			}
+
+			int ifd0 = buffer.getInt(4);
+			int ifd1 = buffer.getInt(ifd0 + 2 + entryCount(buffer, ifd0) * 12);
+
+			if (ifd1 <= 0) {
+				return null;
+			}
+
+			int offset = -1;
+			int length = -1;
+
+			for (int i = 0; i < entryCount(buffer, ifd1); i++) {
+				int entry = ifd1 + 2 + i * 12;
+				int tag = buffer.getShort(entry) & 0xffff;
+				int type = buffer.getShort(entry + 2) & 0xffff;
+				int value = type == TYPE_SHORT ? buffer.getShort(entry + 8) & 0xffff
+						: buffer.getInt(entry + 8);
+
+				if (tag == TAG_THUMBNAIL_OFFSET) {
+					offset = value;
+				} else if (tag == TAG_THUMBNAIL_LENGTH) {
+					length = value;
+				}
+			}
+
+			if (offset <= 0 || length <= 0 || offset > tiff.length - length) {
+				return null;
+			}
+
+			return Arrays.copyOfRange(tiff, offset, offset + length);
+		} catch (RuntimeException e) {
+			// Offsets of a malformed segment point outside of it
+			return null;
+		}
+	}
+
+	private static int entryCount(ByteBuffer buffer, int ifd) {
+		return buffer.getShort(ifd) & 0xffff;
+	}
+}
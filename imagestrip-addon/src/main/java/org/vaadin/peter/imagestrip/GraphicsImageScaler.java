@@ -0,0 +1,42 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales images with a single Graphics2D.drawImage using the default
+ * rendering hints. The image is drawn by the calling thread regardless of
+ * its size: Java2D does not promise that drawing into the same image from
+ * several threads is safe, and each band would draw the whole source anyway.
+ * Use one of the raster based scalers to scale large images in parallel.
+ */
+
+class GraphicsImageScaler implements ImageScaler {
+
+	private static final long serialVersionUID = -6151784340512254197L;
+
+	@Override
+	public String getName() {
+		return "default";
+	}
+
+	@Override
+	public BufferedImage scale(BufferedImage source, int width, int height,
+			boolean alpha) {
+		BufferedImage scaledImage = RasterImageScaler.createImage(width,
+				height, alpha);
+
+		Graphics2D graphics = scaledImage.createGraphics();
+		graphics.setComposite(AlphaComposite.Src);
+		graphics.drawImage(source, 0, 0, width, height, null);
+		graphics.dispose();
+
+		return scaledImage;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -0,0 +1,177 @@
+package org.vaadin.peter.imagestrip;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+/**
+ * ImageEncoding describes how scaled images are encoded: their format,
+ * compression quality and whether JPEG images are written progressively.
+ * Lower quality trades image detail for smaller thumbnails, progressive JPEG
+ * lets the browser show a coarse image before the whole thumbnail has been
+ * loaded.
+ *
+ * Formats that support transparency, such as PNG, keep the alpha channel of
+ * the source image.
+ */
+
+public final class ImageEncoding implements Serializable {
+
+	private static final long serialVersionUID = 4210975120593163584L;
+
+	/**
+	 * Quality that leaves compression to the defaults of the image writer
+	 */
+
+	public static final float DEFAULT_QUALITY = -1;
+
+	/**
+	 * JPEG with the default settings of the image writer
+	 */
+
+	public static final ImageEncoding DEFAULT = new ImageEncoding("jpg");
+
+	/**
+	 * Lossless PNG that keeps transparency
+	 */
+
+	public static final ImageEncoding PNG = new ImageEncoding("png");
+
+	private final String format;
+	private final float quality;
+	private final boolean progressive;
+
+	/**
+	 * Creates an encoding with default settings of the image writer
+	 *
+	 * @param format
+	 *            informal name of the output format, such as "jpg"
+	 */
+
+	public ImageEncoding(String format) {
+		this(format, DEFAULT_QUALITY, false);
+	}
+
+	/**
+	 * @param format
+	 *            informal name of the output format, such as "jpg"
+	 * @param quality
+	 *            compression quality between 0 and 1, or DEFAULT_QUALITY
+	 * @param progressive
+	 *            true to write images progressively if the format supports
+	 *            it
+	 * @throws IllegalArgumentException
+	 *             if format is not given or quality is out of range
+	 */
+
+	public ImageEncoding(String format, float quality, boolean progressive) {
+		if (format == null) {
+			throw new IllegalArgumentException("Format must be given");
+		}
+
+		if (quality != DEFAULT_QUALITY && (quality < 0 || quality > 1)) {
+			throw new IllegalArgumentException(
+					"Quality must be between 0 and 1");
+		}
+
+		this.format = format.toLowerCase(Locale.ENGLISH);
+		this.quality = quality;
+		this.progressive = progressive;
+	}
+
+	/**
+	 * @param quality
+	 *            compression quality between 0 and 1
+	 * @return JPEG encoding with given quality
+	 */
+
+	public static ImageEncoding jpeg(float quality) {
+		return new ImageEncoding("jpg", quality, false);
+	}
+
+	/**
+	 * @param quality
+	 *            compression quality between 0 and 1
+	 * @return progressive JPEG encoding with given quality
+	 */
+
+	public static ImageEncoding progressiveJpeg(float quality) {
+		return new ImageEncoding("jpg", quality, true);
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return compression quality between 0 and 1, or DEFAULT_QUALITY
+	 */
+
+	public float getQuality() {
+		return quality;
+	}
+
+	public boolean isProgressive() {
+		return progressive;
+	}
+
+	/**
+	 * @return true if images of this encoding can be transparent
+	 */
+
+	public boolean supportsAlpha() {
+		return "png".equals(format) || "gif".equals(format);
+	}
+
+	/**
+	 * @return true if this encoding uses the default settings of the image
+	 *         writer
+	 */
+
+	public boolean isDefault() {
+		return quality == DEFAULT_QUALITY && !progressive;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+
+		if (!(obj instanceof ImageEncoding)) {
+			return false;
+		}
+
+		ImageEncoding other = (ImageEncoding) obj;
+		return format.equals(other.format)
+				&& Float.compare(quality, other.quality) == 0
+				&& progressive == other.progressive;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = format.hashCode();
+		result = 31 * result + Float.floatToIntBits(quality);
+		result = 31 * result + (progressive ? 1 : 0);
+		return result;
+	}
+
+	/**
+	 * @return format followed by non-default settings, such as
+	 *         "jpg q0.8 progressive"
+	 */
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder(format);
+
+		if (quality != DEFAULT_QUALITY) {
+			result.append(" q").append(quality);
+		}
+
+		if (progressive) {
+			result.append(" progressive");
+		}
+
+		return result.toString();
+	}
+}
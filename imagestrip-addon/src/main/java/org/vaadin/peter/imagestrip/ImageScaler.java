@@ -0,0 +1,93 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.Serializable;
+
+/**
+ * ImageScaler scales decoded source images to the size of a thumbnail.
+ * Scalers trade throughput for quality: nearest neighbour and box filtering
+ * are fast but alias or blur, Lanczos resampling keeps detail sharp at the
+ * cost of more arithmetic per pixel.
+ *
+ * Scalers are identified by their name, which is part of the keys of scaled
+ * images. Scalers with the same name must therefore produce the same images.
+ */
+
+public interface ImageScaler extends Serializable {
+
+	/**
+	 * Single Graphics2D.drawImage with the default rendering hints of the
+	 * JDK
+	 */
+
+	ImageScaler DEFAULT = new GraphicsImageScaler();
+
+	/**
+	 * Nearest neighbour sampling of packed pixels, the fastest scaler but
+	 * aliases on large reductions
+	 */
+
+	ImageScaler NEAREST = new NearestImageScaler();
+
+	/**
+	 * Averages the source pixels covered by each scaled pixel, fast and free
+	 * of aliasing but softer than Lanczos
+	 */
+
+	ImageScaler BOX = new BoxImageScaler();
+
+	/**
+	 * Halves the image with bilinear interpolation until it is close to the
+	 * scaled size
+	 */
+
+	ImageScaler PROGRESSIVE_BILINEAR = new ProgressiveImageScaler();
+
+	/**
+	 * Separable Lanczos resampling with three lobes, the sharpest and slowest
+	 * scaler
+	 */
+
+	ImageScaler LANCZOS = new LanczosImageScaler();
+
+	/**
+	 * @return name that identifies images scaled with this scaler
+	 */
+
+	String getName();
+
+	/**
+	 * Scales given image to given size
+	 * 
+	 * @param source
+	 * @param width
+	 *            width of the scaled image
+	 * @param height
+	 *            height of the scaled image
+	 * @param alpha
+	 *            true to keep the alpha channel of the source, scaled image
+	 *            is then of type TYPE_INT_ARGB and otherwise TYPE_INT_RGB
+	 * @return scaled image
+	 */
+
+	BufferedImage scale(BufferedImage source, int width, int height,
+			boolean alpha);
+
+	/**
+	 * @param name
+	 * @return built-in scaler with given name
+	 * @throws IllegalArgumentException
+	 *             if there is no scaler with given name
+	 */
+
+	static ImageScaler forName(String name) {
+		for (ImageScaler scaler : new ImageScaler[] { DEFAULT, NEAREST, BOX,
+				PROGRESSIVE_BILINEAR, LANCZOS }) {
+			if (scaler.getName().equals(name)) {
+				return scaler;
+			}
+		}
+
+		throw new IllegalArgumentException("Unknown scaler " + name);
+	}
+}
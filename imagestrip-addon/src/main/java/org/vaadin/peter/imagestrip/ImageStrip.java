@@ -6,17 +6,44 @@ import com.vaadin.server.PaintException;
 import com.vaadin.server.PaintTarget;
 import com.vaadin.server.Resource;
 import com.vaadin.server.Sizeable;
+import com.vaadin.server.StreamResource;
+import com.vaadin.server.StreamResource.StreamSource;
+import com.vaadin.server.VaadinSession;
 import com.vaadin.ui.AbstractField;
 import com.vaadin.ui.LegacyComponent;
-
-import java.io.File;
+import com.vaadin.ui.UI;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
 
 /**
  * ImageStrip is a general purpose image viewer widget that displays given image
@@ -36,6 +63,12 @@ import java.util.Set;
 public class ImageStrip extends AbstractField implements LegacyComponent {
 
     private static final long serialVersionUID = 3214300856058497608L;
+
+    /**
+     * Highest pixel density images can be scaled for
+     */
+
+    public static final int MAX_PIXEL_DENSITY = 3;
     /**
      * All images added to this component
      */
@@ -123,9 +156,43 @@ public class ImageStrip extends AbstractField implements LegacyComponent {
      */
 
     private boolean selectable;
+    /**
+     * Encoding of the scaled images
+     */
+
+    private ImageEncoding imageEncoding = ImageEncoding.DEFAULT;
+    /**
+     * Scaler of the scaled images
+     */
+
+    private ImageScaler imageScaler = ImageScaler.DEFAULT;
+    /**
+     * Highest pixel density variant offered to clients
+     */
+
+    private int maxPixelDensity = 1;
+    /**
+     * Are the images of a window sent to the client as a single sprite
+     */
+
+    private boolean spriteTransport;
 
     private Object value;
 
+    /**
+     * Executor used for scaling images in parallel, null for the default
+     * scaling executor
+     */
+
+    private transient ExecutorService executor;
+
+    /**
+     * Executor shared by strips that have no executor of their own, created
+     * when it is first needed
+     */
+
+    private static ExecutorService defaultExecutor;
+
     /**
      * Creates an empty image strip with horizontal alignment
      */
@@ -216,14 +283,42 @@ public class ImageStrip extends AbstractField implements LegacyComponent {
         target.addAttribute("selectable", selectable);
         target.addAttribute("removeAll", clear);
         target.addAttribute("direction", direction);
+        clear = false;
 
         // Images to transfer
         if (imagesToTransfer.size() > 0) {
             // send image resources and their associated id numbers to client
             target.startTag("images");
+
+            Map<Image, Point> spriteOffsets = layoutSprite(imagesToTransfer);
+            if (spriteOffsets != null) {
+                target.addAttribute("sprite", createSprite(spriteOffsets));
+            }
+
             for (Image image : imagesToTransfer) {
                 target.startTag("image");
-                target.addAttribute("resource", image.getResource());
+                if (image.isPending()) {
+                    target.addAttribute("pending", true);
+                } else {
+                    target.addAttribute("resource", image.getResource());
+
+                    if (spriteOffsets != null) {
+                        Point offset = spriteOffsets.get(image);
+                        target.addAttribute("spriteX", offset.x);
+                        target.addAttribute("spriteY", offset.y);
+                    }
+
+                    for (int density = 2; density <= MAX_PIXEL_DENSITY; density++) {
+                        Resource variant = image.getResource(density);
+                        if (variant != null) {
+                            target.addAttribute("resource" + density + "x", variant);
+                        }
+                    }
+
+                    if (image.getPlaceholderColor() != null) {
+                        target.addAttribute("placeholder", image.getPlaceholderColor());
+                    }
+                }
                 target.addAttribute("index", image.getImageIndex());
                 target.addAttribute("width", image.getWidth());
                 target.addAttribute("height", image.getHeight());
@@ -323,6 +418,300 @@ public class ImageStrip extends AbstractField implements LegacyComponent {
         return addImage(new ExternalResource(URL));
     }
 
+    /**
+     * Adds new images from given FileResources and ExternalResources to this
+     * strip. Images are scaled in parallel using the executor of this strip,
+     * but they are added to the strip in the iteration order of the given
+     * collection and the strip is repainted only once. Images that cannot be
+     * read are skipped.
+     *
+     * @param resources
+     * @return Image objects of the added images in the iteration order of the given collection
+     * @throws UnsupportedOperationException
+     *     if some of the resources is not a FileResource or an ExternalResource
+     * @see #setExecutor(ExecutorService)
+     */
+
+    public List<Image> addImages(Collection<? extends Resource> resources) {
+        for (Resource resource : resources) {
+            if (!(resource instanceof FileResource) && !(resource instanceof ExternalResource)) {
+                throw new UnsupportedOperationException("Only FileResources and ExternalResource are currently supported");
+            }
+        }
+
+        final int maxWidth = imageMaxWidth;
+        final int maxHeight = imageMaxHeight;
+        final ImageEncoding encoding = imageEncoding;
+        final ImageScaler scaler = imageScaler;
+
+        ExecutorService executor = getExecutor();
+        List<Resource> sources = new ArrayList<Resource>(resources);
+        List<Future<Thumbnail>> thumbnails = new ArrayList<Future<Thumbnail>>(sources.size());
+
+        for (final Resource resource : sources) {
+            thumbnails.add(scaleQueued(resource, maxWidth, maxHeight, encoding, scaler, executor));
+        }
+
+        List<Image> added = new ArrayList<Image>(thumbnails.size());
+
+        try {
+            for (int i = 0; i < thumbnails.size(); i++) {
+                Thumbnail thumbnail;
+                try {
+                    thumbnail = thumbnails.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ImageToolsException || e.getCause() instanceof FileNotFoundException) {
+                        // Images that cannot be read are skipped
+                        continue;
+                    }
+                    throw e;
+                }
+
+                if (thumbnail != null) {
+                    Image image = createImage(sources.get(i), thumbnail);
+                    images.add(image);
+                    imageIds.put(image.getImageIndex(), image);
+                    added.add(image);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            for (Future<Thumbnail> future : thumbnails) {
+                future.cancel(true);
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to add images", e.getCause());
+        } finally {
+            direction = 0;
+            imagesToTransfer.clear();
+            sendImages(cursor);
+        }
+
+        return added;
+    }
+
+    /**
+     * Adds new image from given FileResource or ExternalResource to this
+     * strip without waiting for the image to be read and scaled. Until the
+     * image is ready, the strip shows a placeholder of the maximum image size
+     * in its place. Scaling runs in the executor of this strip and the
+     * finished image is applied with UI.access, so it is shown right away
+     * when server push is enabled and on the next round trip otherwise.
+     * Strips that have no UI yet are updated with VaadinSession.access of
+     * the current session. Only a strip used outside of any session, such
+     * as in a unit test, is updated in the executor thread, in which case
+     * the caller must not use the strip until the returned future completes.
+     *
+     * @param resource
+     * @return future that completes with the Image object of the added image once it has been
+     *     scaled, or exceptionally if the image cannot be read or the UI has been detached
+     *     before the image could be applied
+     * @throws UnsupportedOperationException
+     *     if resource is not a FileResource or an ExternalResource
+     * @see #setExecutor(ExecutorService)
+     */
+
+    public CompletableFuture<Image> addImageAsync(final Resource resource) {
+        if (!(resource instanceof FileResource) && !(resource instanceof ExternalResource)) {
+            throw new UnsupportedOperationException("Only FileResources and ExternalResource are currently supported");
+        }
+
+        final Image image = new Image(imageIndex++, null, new HashMap<Integer, Resource>(), null, imageMaxWidth,
+            imageMaxHeight);
+
+        direction = 0;
+        images.add(image);
+        imageIds.put(image.getImageIndex(), image);
+
+        imagesToTransfer.clear();
+        sendImages(cursor);
+
+        final int maxWidth = imageMaxWidth;
+        final int maxHeight = imageMaxHeight;
+        final ImageEncoding encoding = imageEncoding;
+        final ImageScaler scaler = imageScaler;
+        final UI ui = getUI() != null ? getUI() : UI.getCurrent();
+        final VaadinSession session = VaadinSession.getCurrent();
+        final CompletableFuture<Image> result = new CompletableFuture<Image>();
+
+        scaleQueued(resource, maxWidth, maxHeight, encoding, scaler, getExecutor())
+            .whenComplete((thumbnail, failure) -> {
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause() : failure;
+                Runnable completion = () -> completeImage(image, resource, thumbnail, cause, result);
+
+                try {
+                    if (ui != null) {
+                        ui.access(completion);
+                    } else if (session != null) {
+                        session.access(completion);
+                    } else {
+                        completion.run();
+                    }
+                } catch (RuntimeException e) {
+                    // UI was detached, for example because the user navigated away
+                    result.completeExceptionally(e);
+                }
+            });
+
+        return result;
+    }
+
+    /**
+     * Sets the executor that is used for scaling images added with
+     * addImages and addImageAsync. Any ExecutorService can be used, such as a fixed pool of
+     * platform threads or a virtual thread per task executor. Strip does not
+     * shut down the given executor.
+     *
+     * By default strips share a bounded pool of daemon threads that is kept
+     * apart from the common fork join pool, so blocking reads of files and
+     * URLs do not starve the parallel scaling of large images that runs
+     * there.
+     *
+     * @param executor
+     *     executor to use or null to use the default scaling executor
+     */
+
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return executor that is used for scaling images added with addImages and addImageAsync
+     */
+
+    public ExecutorService getExecutor() {
+        if (executor == null) {
+            return getDefaultExecutor();
+        }
+        return executor;
+    }
+
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            // Reads block on disk and network, so use some more threads than there are cores
+            int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+            final AtomicInteger count = new AtomicInteger();
+
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "imagestrip-scaler-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            pool.allowCoreThreadTimeOut(true);
+            defaultExecutor = pool;
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Sets the encoding of images scaled for this strip. Lower JPEG quality
+     * gives smaller thumbnails, progressive JPEG is shown coarse before it is
+     * fully loaded and PNG keeps the transparency of the source images. Applies
+     * to images added after this call.
+     *
+     * @param imageEncoding
+     * @throws IllegalArgumentException
+     *     if imageEncoding is null
+     */
+
+    public void setImageEncoding(ImageEncoding imageEncoding) {
+        if (imageEncoding == null) {
+            throw new IllegalArgumentException("Image encoding must be given");
+        }
+        this.imageEncoding = imageEncoding;
+    }
+
+    /**
+     * @return encoding of images scaled for this strip
+     */
+
+    public ImageEncoding getImageEncoding() {
+        return imageEncoding;
+    }
+
+    /**
+     * Sets the scaler of images scaled for this strip, trading throughput
+     * for quality. ImageScaler.BOX or ImageScaler.NEAREST suit galleries of
+     * many small thumbnails, ImageScaler.LANCZOS keeps detail in large
+     * previews. Applies to images added after this call.
+     *
+     * @param imageScaler
+     * @throws IllegalArgumentException
+     *     if imageScaler is null
+     */
+
+    public void setImageScaler(ImageScaler imageScaler) {
+        if (imageScaler == null) {
+            throw new IllegalArgumentException("Image scaler must be given");
+        }
+        this.imageScaler = imageScaler;
+    }
+
+    /**
+     * @return scaler of images scaled for this strip
+     */
+
+    public ImageScaler getImageScaler() {
+        return imageScaler;
+    }
+
+    /**
+     * Sets the highest pixel density images are offered in. Clients on high
+     * density screens pick the variant closest to their device pixel ratio,
+     * other clients keep loading the images scaled to the maximum image size.
+     * Variants are scaled only when a client requests them, and only offered
+     * when the source image is large enough to fill them. Applies to images
+     * added after this call.
+     *
+     * @param maxPixelDensity
+     *     1 for no variants, 2 for 2x variants or 3 for 2x and 3x variants
+     * @throws IllegalArgumentException
+     *     if maxPixelDensity is not between 1 and MAX_PIXEL_DENSITY
+     */
+
+    public void setMaxPixelDensity(int maxPixelDensity) {
+        if (maxPixelDensity < 1 || maxPixelDensity > MAX_PIXEL_DENSITY) {
+            throw new IllegalArgumentException("Pixel density must be between 1 and " + MAX_PIXEL_DENSITY);
+        }
+        this.maxPixelDensity = maxPixelDensity;
+    }
+
+    /**
+     * @return highest pixel density images are offered in
+     */
+
+    public int getMaxPixelDensity() {
+        return maxPixelDensity;
+    }
+
+    /**
+     * Sets whether the images sent to the client for a window of the strip are composed into a
+     * single sprite image. Client then loads each window with one request instead of one
+     * request per image, which helps on high latency connections. Sprites are composed of the
+     * images scaled to the maximum image size, so clients do not load denser variants in this
+     * mode.
+     *
+     * @param spriteTransport
+     */
+
+    public void setSpriteTransport(boolean spriteTransport) {
+        this.spriteTransport = spriteTransport;
+    }
+
+    /**
+     * @return true if images are sent to the client as sprites
+     */
+
+    public boolean isSpriteTransport() {
+        return spriteTransport;
+    }
+
     /**
      * Sets the number of images which are allowed to be visible simultaneously.
      * Negative value removes the limit.
@@ -344,7 +733,6 @@ public class ImageStrip extends AbstractField implements LegacyComponent {
 
     public void setImageBoxWidth(int imageBoxWidth) {
         this.imageBoxWidth = imageBoxWidth;
-        ImageTools.clearCache();
         requestRepaint();
     }
 
@@ -357,7 +745,6 @@ public class ImageStrip extends AbstractField implements LegacyComponent {
 
     public void setImageBoxHeight(int imageHeight) {
         this.imageBoxHeight = imageHeight;
-        ImageTools.clearCache();
         requestRepaint();
     }
 
@@ -495,44 +882,272 @@ public class ImageStrip extends AbstractField implements LegacyComponent {
      */
 
     private Image readImageResource(Resource resource) {
+        Thumbnail thumbnail = createThumbnail(resource, imageMaxWidth, imageMaxHeight, imageEncoding, imageScaler);
 
-        File imageFile = null;
+        if (thumbnail == null) {
+            return null;
+        }
 
-        if (resource instanceof FileResource) {
-            FileResource fResource = (FileResource) resource;
+        return createImage(resource, thumbnail);
+    }
 
-            try {
-                imageFile = ImageTools.resizeImage(fResource.getSourceFile(), imageMaxWidth, imageMaxHeight);
+    /**
+     * Scales given Resource to fit given maximum dimensions. This method does
+     * not touch the state of the strip and can therefore be called from
+     * background threads.
+     *
+     * @param resource
+     * @param maxWidth
+     * @param maxHeight
+     * @param encoding
+     * @param scaler
+     * @return scaled image
+     * @throws CompletionException
+     *     caused by the ImageToolsException or FileNotFoundException of reading the image
+     */
 
-                FileResource scaledImage = new FileResource(imageFile);
+    private static Thumbnail createQueuedThumbnail(Resource resource, int maxWidth, int maxHeight,
+            ImageEncoding encoding, ImageScaler scaler) {
+        Thumbnail thumbnail;
+        try {
+            thumbnail = readThumbnail(resource, maxWidth, maxHeight, encoding, scaler);
+        } catch (ImageToolsException | FileNotFoundException e) {
+            throw new CompletionException(e);
+        }
 
-                int width = ImageTools.getImageWidth(imageFile);
-                int height = ImageTools.getImageHeight(imageFile);
+        // Thumbnails found from the store are decoded for their color here instead of the UI thread
+        ImageTools.getPlaceholderColor(thumbnail);
+        return thumbnail;
+    }
 
-                return new Image(imageIndex++, scaledImage, width, height);
-            } catch (FileNotFoundException e) {
-                return null;
-            } catch (ImageToolsException e) {
-                return null;
+    /**
+     * Queues scaling of given resource to given executor. Queue depth of the
+     * metrics is decreased when the task completes, so also when the returned
+     * future is cancelled before the task runs, and right away if the
+     * executor rejects the task.
+     *
+     * @return future of createQueuedThumbnail
+     * @throws RejectedExecutionException
+     *     if executor does not accept the task
+     */
+
+    private static CompletableFuture<Thumbnail> scaleQueued(Resource resource, int maxWidth, int maxHeight,
+            ImageEncoding encoding, ImageScaler scaler, ExecutorService executor) {
+        ImageTools.fireScalingQueued();
+
+        CompletableFuture<Thumbnail> task;
+        try {
+            task = CompletableFuture.supplyAsync(
+                () -> createQueuedThumbnail(resource, maxWidth, maxHeight, encoding, scaler), executor);
+        } catch (RejectedExecutionException e) {
+            ImageTools.fireScalingFinished();
+            throw e;
+        }
+
+        // Queue depth is decreased before the result is seen by the caller
+        CompletableFuture<Thumbnail> thumbnail = new CompletableFuture<Thumbnail>();
+        task.whenComplete((scaled, failure) -> {
+            ImageTools.fireScalingFinished();
+
+            if (failure != null) {
+                thumbnail.completeExceptionally(failure);
+            } else {
+                thumbnail.complete(scaled);
+            }
+        });
+        thumbnail.whenComplete((scaled, failure) -> {
+            if (thumbnail.isCancelled()) {
+                task.cancel(false);
             }
+        });
+
+        return thumbnail;
+    }
+
+    private static Thumbnail createThumbnail(Resource resource, int maxWidth, int maxHeight, ImageEncoding encoding,
+            ImageScaler scaler) {
+        try {
+            return readThumbnail(resource, maxWidth, maxHeight, encoding, scaler);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (ImageToolsException e) {
+            return null;
+        }
+    }
+
+    private static Thumbnail readThumbnail(Resource resource, int maxWidth, int maxHeight, ImageEncoding encoding,
+            ImageScaler scaler) throws ImageToolsException, FileNotFoundException {
+        if (resource instanceof FileResource) {
+            FileResource fResource = (FileResource) resource;
+            return ImageTools.resizeImage(fResource.getSourceFile(), maxWidth, maxHeight, encoding, scaler);
         } else if (resource instanceof ExternalResource) {
             ExternalResource eResource = (ExternalResource) resource;
+            return ImageTools.resizeImage(eResource.getURL(), maxWidth, maxHeight, encoding, scaler);
+        }
 
-            try {
-                imageFile = ImageTools.resizeImage(eResource.getURL(), imageMaxWidth, imageMaxHeight);
+        throw new UnsupportedOperationException("Only FileResources and ExternalResource are currently supported");
+    }
+
+    private Image createImage(Resource source, Thumbnail thumbnail) {
+        return new Image(imageIndex++, createResource(source, thumbnail), createVariants(source, thumbnail, maxPixelDensity),
+            ImageTools.getPlaceholderColor(thumbnail), thumbnail.getWidth(), thumbnail.getHeight());
+    }
+
+    /**
+     * Creates the resource the client loads given thumbnail from. Thumbnails
+     * stored in files are served as FileResources, others are streamed from
+     * their store.
+     *
+     * @param source
+     *     resource the thumbnail was scaled from
+     * @param thumbnail
+     * @return resource for the client
+     */
+
+    private static Resource createResource(Resource source, Thumbnail thumbnail) {
+        if (thumbnail.getFile() != null) {
+            return new FileResource(thumbnail.getFile());
+        }
+
+        ThumbnailKey key = thumbnail.getKey();
+        ThumbnailStreamSource streamSource = new ThumbnailStreamSource(source, key.getMaxWidth(), key.getMaxHeight(), key.getEncoding(),
+            key.getScaler());
+
+        return new StreamResource(streamSource, key.getDigest() + "." + key.getFormat());
+    }
+
+    /**
+     * Creates resources for the higher pixel density variants of given
+     * thumbnail. Variants are streamed and scaled only when a client requests
+     * them.
+     *
+     * @param source
+     *     resource the thumbnail was scaled from
+     * @param thumbnail
+     * @param maxDensity
+     * @return variant resources by their pixel density, empty if maxDensity is 1
+     */
+
+    private static Map<Integer, Resource> createVariants(Resource source, Thumbnail thumbnail, int maxDensity) {
+        Map<Integer, Resource> variants = new HashMap<Integer, Resource>();
+        ThumbnailKey key = thumbnail.getKey();
+        Dimension sourceSize = maxDensity > 1 ? getSourceSize(source, thumbnail) : null;
+
+        for (int density = 2; density <= maxDensity; density++) {
+            // Variant scaled up from a smaller source would only cost bandwidth
+            if (sourceSize == null || sourceSize.width < thumbnail.getWidth() * density
+                || sourceSize.height < thumbnail.getHeight() * density) {
+                break;
+            }
+
+            ThumbnailKey variantKey = new ThumbnailKey(key.getSource(), key.getMaxWidth() * density, key.getMaxHeight() * density,
+                key.getEncoding(), key.getScaler());
+            ThumbnailStreamSource streamSource = new ThumbnailStreamSource(source, variantKey.getMaxWidth(), variantKey.getMaxHeight(),
+                variantKey.getEncoding(), variantKey.getScaler());
 
-                FileResource scaledImage = new FileResource(imageFile);
+            variants.put(density, new StreamResource(streamSource, variantKey.getDigest() + "." + variantKey.getFormat()));
+        }
+
+        return variants;
+    }
+
+    /**
+     * @return dimensions of the source image of given thumbnail or null if
+     *     they cannot be found out without downloading the source again
+     */
 
-                int width = ImageTools.getImageWidth(imageFile);
-                int height = ImageTools.getImageHeight(imageFile);
+    private static Dimension getSourceSize(Resource source, Thumbnail thumbnail) {
+        if (thumbnail.getSourceWidth() > 0) {
+            return new Dimension(thumbnail.getSourceWidth(), thumbnail.getSourceHeight());
+        }
 
-                return new Image(imageIndex++, scaledImage, width, height);
+        if (source instanceof FileResource) {
+            try {
+                Dimension size = ImageTools.getImageDimension(((FileResource) source).getSourceFile());
+                thumbnail.setSourceSize(size.width, size.height);
+                return size;
             } catch (ImageToolsException e) {
                 return null;
             }
         }
 
-        throw new UnsupportedOperationException("Only FileResources and ExternalResource are currently supported");
+        return null;
+    }
+
+    /**
+     * Applies the result of an asynchronous scaling to given pending image
+     * and refreshes the strip.
+     */
+
+    private void completeImage(Image image, Resource source, Thumbnail thumbnail, Throwable failure, CompletableFuture<Image> result) {
+        direction = 0;
+        imagesToTransfer.clear();
+
+        if (thumbnail == null) {
+            images.remove(image);
+            imageIds.remove(image.getImageIndex());
+
+            if (cursor >= images.size()) {
+                cursor = 0;
+            }
+
+            if (images.isEmpty()) {
+                clear = true;
+                requestRepaint();
+            } else {
+                sendImages(cursor);
+            }
+
+            if (failure == null) {
+                failure = new ImageToolsException("Unable to read image " + image.getImageIndex());
+            }
+            result.completeExceptionally(failure);
+        } else {
+            image.setScaledImage(createResource(source, thumbnail), createVariants(source, thumbnail, maxPixelDensity),
+                ImageTools.getPlaceholderColor(thumbnail), thumbnail.getWidth(), thumbnail.getHeight());
+            sendImages(cursor);
+
+            result.complete(image);
+        }
+    }
+
+    /**
+     * Places the scaled images of given window side by side in a sprite
+     *
+     * @param window
+     *     images to transfer, may contain an image more than once
+     * @return offset of each image in the sprite or null if sprite transport is off or there are
+     *     less than two scaled images to compose
+     */
+
+    Map<Image, Point> layoutSprite(List<Image> window) {
+        if (!spriteTransport) {
+            return null;
+        }
+
+        Map<Image, Point> offsets = new LinkedHashMap<Image, Point>();
+        int x = 0;
+
+        for (Image image : window) {
+            if (!image.isPending() && !offsets.containsKey(image)) {
+                offsets.put(image, new Point(x, 0));
+                x += image.getWidth();
+            }
+        }
+
+        return offsets.size() > 1 ? offsets : null;
+    }
+
+    Resource createSprite(Map<Image, Point> offsets) {
+        StringBuilder name = new StringBuilder();
+        for (Image image : offsets.keySet()) {
+            name.append(image.getImageIndex()).append(',');
+        }
+
+        SpriteStreamSource streamSource = new SpriteStreamSource(offsets, imageEncoding);
+
+        return new StreamResource(streamSource, "sprite-" + Integer.toHexString(name.toString().hashCode()) + "."
+            + imageEncoding.getFormat());
     }
 
     private Image addImageInternal(Resource resource) {
@@ -548,6 +1163,123 @@ public class ImageStrip extends AbstractField implements LegacyComponent {
         return image;
     }
 
+    /**
+     * Streams a thumbnail from its store. Thumbnail is looked up again on
+     * every request, so it is scaled again if it has been evicted meanwhile.
+     */
+
+    private static class ThumbnailStreamSource implements StreamSource {
+
+        private static final long serialVersionUID = 5316457361392862371L;
+
+        private final Resource source;
+        private final int maxWidth;
+        private final int maxHeight;
+        private final ImageEncoding encoding;
+        private final ImageScaler scaler;
+
+        private ThumbnailStreamSource(Resource source, int maxWidth, int maxHeight, ImageEncoding encoding,
+            ImageScaler scaler) {
+            this.source = source;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.encoding = encoding;
+            this.scaler = scaler;
+        }
+
+        @Override
+        public InputStream getStream() {
+            Thumbnail thumbnail = createThumbnail(source, maxWidth, maxHeight, encoding, scaler);
+
+            if (thumbnail == null) {
+                return null;
+            }
+
+            try {
+                return thumbnail.openStream();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Composes the images of a window into a sprite when the client requests it. Each image is
+     * read from the resource the client would otherwise load it from.
+     */
+
+    private static class SpriteStreamSource implements StreamSource {
+
+        private static final long serialVersionUID = -2071874925580937482L;
+
+        private final List<Resource> resources = new ArrayList<Resource>();
+        private final List<Point> offsets = new ArrayList<Point>();
+        private final ImageEncoding encoding;
+
+        private int width;
+        private int height;
+
+        private SpriteStreamSource(Map<Image, Point> layout, ImageEncoding encoding) {
+            this.encoding = encoding;
+
+            for (Map.Entry<Image, Point> entry : layout.entrySet()) {
+                Image image = entry.getKey();
+                Point offset = entry.getValue();
+
+                resources.add(image.getResource());
+                offsets.add(offset);
+
+                width = Math.max(width, offset.x + image.getWidth());
+                height = Math.max(height, offset.y + image.getHeight());
+            }
+        }
+
+        @Override
+        public InputStream getStream() {
+            BufferedImage sprite = new BufferedImage(width, height,
+                encoding.supportsAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = sprite.createGraphics();
+
+            try {
+                for (int i = 0; i < resources.size(); i++) {
+                    BufferedImage image = readImage(resources.get(i));
+
+                    // Unreadable images are left blank, client shows their placeholder color
+                    if (image != null) {
+                        graphics.drawImage(image, offsets.get(i).x, offsets.get(i).y, null);
+                    }
+                }
+            } finally {
+                graphics.dispose();
+            }
+
+            try {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                ImageTools.encodeImage(sprite, encoding, output);
+                return new ByteArrayInputStream(output.toByteArray());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private static BufferedImage readImage(Resource resource) {
+            try (InputStream stream = openResource(resource)) {
+                return stream != null ? ImageIO.read(stream) : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private static InputStream openResource(Resource resource) throws IOException {
+            if (resource instanceof FileResource) {
+                return new FileInputStream(((FileResource) resource).getSourceFile());
+            } else if (resource instanceof StreamResource) {
+                return ((StreamResource) resource).getStreamSource().getStream();
+            }
+            return null;
+        }
+    }
+
     public enum Alignment {
 
         /**
@@ -572,14 +1304,19 @@ public class ImageStrip extends AbstractField implements LegacyComponent {
     public static class Image {
 
         private final int imageIndex;
-        private final Resource resource;
+        private Resource resource;
+        private Map<Integer, Resource> variants;
+        private String placeholderColor;
 
-        private final int width;
-        private final int height;
+        private int width;
+        private int height;
 
-        private Image(int imageIndex, Resource resource, int width, int height) {
+        private Image(int imageIndex, Resource resource, Map<Integer, Resource> variants, String placeholderColor,
+            int width, int height) {
             this.imageIndex = imageIndex;
             this.resource = resource;
+            this.variants = variants;
+            this.placeholderColor = placeholderColor;
             this.width = width;
             this.height = height;
         }
@@ -592,6 +1329,30 @@ public class ImageStrip extends AbstractField implements LegacyComponent {
             return resource;
         }
 
+        /**
+         * @param density
+         *     pixel density of the variant, 1 for the image scaled to the maximum image size
+         * @return resource of the variant scaled for given pixel density or null if there is no
+         *     such variant
+         * @see ImageStrip#setMaxPixelDensity(int)
+         */
+
+        public Resource getResource(int density) {
+            if (density == 1) {
+                return resource;
+            }
+            return variants.get(density);
+        }
+
+        /**
+         * @return average color of the image as a CSS color, shown by the client until the image
+         *     has been loaded, or null if the image is pending or its color is unknown
+         */
+
+        public String getPlaceholderColor() {
+            return placeholderColor;
+        }
+
         public int getWidth() {
             return width;
         }
@@ -599,5 +1360,22 @@ public class ImageStrip extends AbstractField implements LegacyComponent {
         public int getHeight() {
             return height;
         }
+
+        /**
+         * @return true if this image was added with addImageAsync and it has not been scaled yet
+         */
+
+        public boolean isPending() {
+            return resource == null;
+        }
+
+        private void setScaledImage(Resource resource, Map<Integer, Resource> variants, String placeholderColor, int width,
+            int height) {
+            this.resource = resource;
+            this.variants = variants;
+            this.placeholderColor = placeholderColor;
+            this.width = width;
+            this.height = height;
+        }
     }
 }
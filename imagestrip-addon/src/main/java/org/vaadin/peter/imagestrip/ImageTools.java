@@ -1,17 +1,39 @@
 package org.vaadin.peter.imagestrip;
 
-import java.awt.AlphaComposite;
-import java.awt.Graphics2D;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.URL;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.vaadin.peter.imagestrip.ThumbnailListener.Stage;
 
 /**
  * ImageTools contains general purpose methods for image manipulation
@@ -21,29 +43,139 @@ import javax.imageio.ImageIO;
 
 public class ImageTools {
 
-	private static Map<String, File> scaledImages = new HashMap<String, File>();
+	/**
+	 * System property that can be used to set the directory of the thumbnail
+	 * store without code changes
+	 */
 
-	public static File resizeImage(String url, int maxWidth, int maxHeight)
-			throws ImageToolsException {
+	public static final String STORAGE_DIRECTORY_PROPERTY = "imagestrip.storage.directory";
 
-		if (cacheContainsFile(url)) {
-			return scaledImages.get(url);
-		}
+	/**
+	 * Default time in milliseconds a resize waits for the memory budget
+	 */
 
-		try {
-			// Read image from file
-			BufferedImage sourceImage = ImageIO.read(new URL(url));
+	public static final long DEFAULT_MEMORY_BUDGET_TIMEOUT = 30000;
 
-			BufferedImage scaledImage = scaleBufferedImage(sourceImage,
-					maxWidth, maxHeight);
-			File out = writeScaledImageToDisk(scaledImage);
+	/**
+	 * Default number of source pixels from which images are scaled in
+	 * parallel
+	 */
 
-			scaledImages.put(url, out);
-			return out;
-		} catch (IOException e) {
-			throw new ImageToolsException("Unable to resize image "
-					+ e.getMessage());
-		}
+	public static final long DEFAULT_PARALLEL_SCALING_THRESHOLD = 4L * 1024 * 1024;
+
+	private static final ThumbnailCache scaledImages = new ThumbnailCache();
+
+	private static volatile ThumbnailStore store = new DirectoryThumbnailStore(
+			defaultStorageDirectory());
+
+	/**
+	 * Resizes that are currently running, used for letting concurrent
+	 * requests of the same image wait for a single resize
+	 */
+
+	private static final ConcurrentMap<ThumbnailKey, CompletableFuture<Thumbnail>> inFlight = new ConcurrentHashMap<ThumbnailKey, CompletableFuture<Thumbnail>>();
+
+	private static volatile RemoteImageFetcher fetcher = new RemoteImageFetcher();
+
+	private static volatile boolean embeddedThumbnails;
+
+	private static volatile long parallelScalingThreshold = DEFAULT_PARALLEL_SCALING_THRESHOLD;
+
+	private static volatile MemoryBudget memoryBudget = new MemoryBudget(
+			Runtime.getRuntime().maxMemory() / 2,
+			DEFAULT_MEMORY_BUDGET_TIMEOUT);
+
+	private static final List<ThumbnailListener> listeners = new CopyOnWriteArrayList<ThumbnailListener>();
+
+	/**
+	 * Validators of source images and the time they were last checked,
+	 * bounded like the cache of scaled images
+	 */
+
+	private static final Map<ThumbnailKey, Validation> validations = Collections
+			.synchronizedMap(new LinkedHashMap<ThumbnailKey, Validation>(16,
+					0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<ThumbnailKey, Validation> eldest) {
+					return size() > scaledImages.getMaxEntries();
+				}
+			});
+
+	/**
+	 * Resizes image from given URL so that it fits to given maximum
+	 * dimensions while maintaining its aspect ratio.
+	 * 
+	 * Image is downloaded with the RemoteImageFetcher of ImageTools. Once
+	 * the revalidation interval of the fetcher has passed, the source is
+	 * checked for changes with a conditional request and scaled again only
+	 * if it has changed.
+	 * 
+	 * @param url
+	 * @param maxWidth
+	 * @param maxHeight
+	 * 
+	 * @return scaled image with its dimensions and location
+	 * 
+	 * @throws ImageToolsException
+	 *             if reading or scaling image fails
+	 */
+
+	public static Thumbnail resizeImage(String url, int maxWidth,
+			int maxHeight) throws ImageToolsException {
+		return resizeImage(url, maxWidth, maxHeight, ImageEncoding.DEFAULT);
+	}
+
+	/**
+	 * Resizes image from given URL so that it fits to given maximum
+	 * dimensions while maintaining its aspect ratio. Scaled image is encoded
+	 * with given encoding.
+	 * 
+	 * @param url
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @param encoding
+	 * 
+	 * @return scaled image with its dimensions and location
+	 * 
+	 * @throws ImageToolsException
+	 *             if reading or scaling image fails
+	 */
+
+	public static Thumbnail resizeImage(String url, int maxWidth,
+			int maxHeight, ImageEncoding encoding) throws ImageToolsException {
+		return resizeImage(url, maxWidth, maxHeight, encoding,
+				ImageScaler.DEFAULT);
+	}
+
+	/**
+	 * Resizes image from given URL with given scaler so that it fits to
+	 * given maximum dimensions while maintaining its aspect ratio. Scaled
+	 * image is encoded with given encoding.
+	 * 
+	 * @param url
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @param encoding
+	 * @param scaler
+	 * 
+	 * @return scaled image with its dimensions and location
+	 * 
+	 * @throws ImageToolsException
+	 *             if reading or scaling image fails
+	 */
+
+	public static Thumbnail resizeImage(String url, int maxWidth,
+			int maxHeight, ImageEncoding encoding, ImageScaler scaler)
+			throws ImageToolsException {
+
+		ThumbnailKey key = new ThumbnailKey(url, maxWidth, maxHeight,
+				encoding, scaler);
+
+		return resizeImage(key, url);
 	}
 
 	/**
@@ -58,7 +190,7 @@ public class ImageTools {
 	 * @param maxWidth
 	 * @param maxHeight
 	 * 
-	 * @return File pointer to scaled image
+	 * @return scaled image with its dimensions and location
 	 * 
 	 * @throws ImageToolsException
 	 *             if scaling image fails
@@ -67,7 +199,58 @@ public class ImageTools {
 	 *             doesn't exist or is not a folder.
 	 */
 
-	public static File resizeImage(File imageFile, int maxWidth, int maxHeight)
+	public static Thumbnail resizeImage(File imageFile, int maxWidth,
+			int maxHeight) throws ImageToolsException, FileNotFoundException {
+		return resizeImage(imageFile, maxWidth, maxHeight,
+				ImageEncoding.DEFAULT);
+	}
+
+	/**
+	 * Resizes image given as imageFile parameter so that it fits to given
+	 * maximum dimensions while maintaining its aspect ratio. Scaled image is
+	 * encoded with given encoding.
+	 * 
+	 * @param imageFile
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @param encoding
+	 * 
+	 * @return scaled image with its dimensions and location
+	 * 
+	 * @throws ImageToolsException
+	 *             if scaling image fails
+	 * @throws FileNotFoundException
+	 *             if given image file does not exist
+	 */
+
+	public static Thumbnail resizeImage(File imageFile, int maxWidth,
+			int maxHeight, ImageEncoding encoding)
+			throws ImageToolsException, FileNotFoundException {
+		return resizeImage(imageFile, maxWidth, maxHeight, encoding,
+				ImageScaler.DEFAULT);
+	}
+
+	/**
+	 * Resizes image given as imageFile parameter with given scaler so that
+	 * it fits to given maximum dimensions while maintaining its aspect ratio.
+	 * Scaled image is encoded with given encoding.
+	 * 
+	 * @param imageFile
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @param encoding
+	 * @param scaler
+	 * 
+	 * @return scaled image with its dimensions and location
+	 * 
+	 * @throws ImageToolsException
+	 *             if scaling image fails
+	 * @throws FileNotFoundException
+	 *             if given image file does not exist
+	 */
+
+	public static Thumbnail resizeImage(File imageFile, int maxWidth,
+			int maxHeight, ImageEncoding encoding, ImageScaler scaler)
 			throws ImageToolsException, FileNotFoundException {
 
 		if (!imageFile.exists()) {
@@ -75,132 +258,1134 @@ public class ImageTools {
 					+ imageFile.getAbsolutePath());
 		}
 
-		if (cacheContainsFile(imageFile.getAbsolutePath())) {
-			return scaledImages.get(imageFile.getAbsolutePath());
+		ThumbnailKey key = new ThumbnailKey(imageFile.getAbsolutePath(),
+				maxWidth, maxHeight, encoding, scaler);
+
+		return resizeImage(key, imageFile);
+	}
+
+	/**
+	 * Returns scaled image for given key, scaling it from given source if it
+	 * has not been scaled yet. Concurrent calls for the same key are
+	 * coalesced so that only one thread reads and scales the source while
+	 * the others wait for its result.
+	 * 
+	 * @param key
+	 * @param source
+	 *            URL string or File to read the source image from
+	 * @return scaled image
+	 * @throws ImageToolsException
+	 *             if reading or scaling image fails
+	 */
+
+	private static Thumbnail resizeImage(ThumbnailKey key, Object source)
+			throws ImageToolsException {
+		long start = System.nanoTime();
+
+		try {
+			return findOrScaleImage(key, source);
+		} finally {
+			fireStageCompleted(key, Stage.RESIZE, start);
+		}
+	}
+
+	private static Thumbnail findOrScaleImage(ThumbnailKey key, Object source)
+			throws ImageToolsException {
+
+		Thumbnail cached = findScaledImage(key);
+		if (cached != null && !needsRevalidation(key, source, cached)) {
+			fire(listener -> listener.cacheHit(key));
+			return cached;
+		}
+
+		CompletableFuture<Thumbnail> flight = new CompletableFuture<Thumbnail>();
+		CompletableFuture<Thumbnail> existing = inFlight.putIfAbsent(key,
+				flight);
+
+		if (existing != null) {
+			// Served by the resize of another thread
+			Thumbnail awaited = awaitScaledImage(existing);
+			fire(listener -> listener.cacheHit(key));
+			return awaited;
 		}
 
 		try {
-			// Read image from file
-			BufferedImage sourceImage = ImageIO.read(imageFile);
+			// Image may have been scaled after the first lookup
+			Thumbnail thumbnail = findScaledImage(key);
 
-			BufferedImage scaledImage = scaleBufferedImage(sourceImage,
-					maxWidth, maxHeight);
-			File out = writeScaledImageToDisk(scaledImage);
+			if (thumbnail == null) {
+				fire(listener -> listener.cacheMiss(key));
+				thumbnail = scaleImage(key, source);
+			} else if (source instanceof File
+					&& needsRevalidation(key, source, thumbnail)) {
+				// Source file has been replaced since it was scaled
+				fire(listener -> listener.cacheMiss(key));
+				thumbnail = scaleImage(key, source);
+			} else {
+				fire(listener -> listener.cacheHit(key));
 
-			scaledImages.put(imageFile.getAbsolutePath(), out);
-			return out;
+				if (needsRevalidation(key, source, thumbnail)) {
+					thumbnail = revalidateImage(key, source.toString(),
+							thumbnail);
+				}
+			}
+
+			flight.complete(thumbnail);
+			return thumbnail;
+		} catch (ImageToolsException e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} catch (RuntimeException e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, flight);
+		}
+	}
+
+	private static Thumbnail awaitScaledImage(
+			CompletableFuture<Thumbnail> flight) throws ImageToolsException {
+		try {
+			return flight.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ImageToolsException(
+					"Interrupted while waiting for image to be resized");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ImageToolsException) {
+				throw (ImageToolsException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new ImageToolsException("Unable to resize image "
+					+ e.getCause());
+		}
+	}
+
+	private static Thumbnail scaleImage(ThumbnailKey key, Object source)
+			throws ImageToolsException {
+		try {
+			if (source instanceof File) {
+				// Read image from file. Its state is recorded before decoding
+				// so that a replace during the decode is noticed later.
+				File file = (File) source;
+				long length = file.length();
+				long modified = file.lastModified();
+				fire(listener -> listener.sourceRead(key, length));
+
+				Thumbnail out = storeDecodedImage(key, source, length,
+						modified);
+				validations.put(key, new Validation(length, modified));
+				return out;
+			}
+
+			// Download image from URL
+			return storeRemoteImage(key,
+					fetchImage(key, source.toString(), null, null));
 		} catch (IOException e) {
 			throw new ImageToolsException("Unable to resize image "
 					+ e.getMessage());
 		}
 	}
 
-	private static boolean cacheContainsFile(String identifier) {
-		if (scaledImages.containsKey(identifier)) {
-			return scaledImages.get(identifier).exists();
+	/**
+	 * Checks whether source image of given scaled image has changed. Scaled
+	 * image is kept if the server responds that the source is not modified
+	 * or if the server cannot be reached.
+	 * 
+	 * @param key
+	 * @param url
+	 * @param current
+	 *            scaled image of the earlier download
+	 * @return current or rescaled image
+	 * @throws ImageToolsException
+	 *             if changed source cannot be scaled
+	 */
+
+	private static Thumbnail revalidateImage(ThumbnailKey key, String url,
+			Thumbnail current) throws ImageToolsException {
+		Validation validation = validations.get(key);
+		String eTag = validation != null ? validation.eTag : null;
+		String lastModified = validation != null ? validation.lastModified
+				: null;
+
+		RemoteImageFetcher.Response response;
+
+		try {
+			response = fetchImage(key, url, eTag, lastModified);
+		} catch (IOException e) {
+			// Serve the earlier image until the source is reachable again
+			validations.put(key, new Validation(eTag, lastModified));
+			return current;
+		}
+
+		if (response.isNotModified()) {
+			validations.put(key, new Validation(eTag, lastModified));
+			return current;
 		}
 
-		return false;
+		try {
+			return storeRemoteImage(key, response);
+		} catch (IOException e) {
+			throw new ImageToolsException("Unable to resize image "
+					+ e.getMessage());
+		}
 	}
 
-	private static File writeScaledImageToDisk(BufferedImage scaledImage)
-			throws IOException {
+	/**
+	 * @return true if given source is a file that has changed since it was
+	 *         scaled, or if it was downloaded and the revalidation interval
+	 *         of the fetcher has passed since it was last checked
+	 */
 
-		FileOutputStream output = null;
+	private static boolean needsRevalidation(ThumbnailKey key, Object source,
+			Thumbnail thumbnail) {
+		Validation validation = validations.get(key);
 
-		try {
-			File targetFile = File.createTempFile("imagestrip", "");
-			output = new FileOutputStream(targetFile);
+		if (source instanceof File) {
+			return isSourceChanged(key, (File) source, thumbnail, validation);
+		}
 
-			ImageIO.write(scaledImage, "jpg", output);
-			return targetFile;
-		} catch (IOException e) {
-			throw e;
-		} finally {
-			if (output != null) {
-				try {
-					output.close();
-				} catch (Exception ignored) {
-					// NOP
-				}
-			}
+		if (validation == null) {
+			// Image was scaled before a restart, its validators are not
+			// known so it is trusted for a full interval
+			validations.put(key, new Validation(null, null));
+			return false;
 		}
+
+		return System.currentTimeMillis() - validation.checked >= fetcher
+				.getRevalidationInterval();
 	}
 
-	private static BufferedImage scaleBufferedImage(BufferedImage sourceImage,
-			int maxWidth, int maxHeight) {
-		// Calculate scaled image's dimensions
-		float calculatedWidth = 0;
-		float calculatedHeight = 0;
+	/**
+	 * Compares size and modification time of given source file to the ones
+	 * it had when it was scaled, as kept by the store of the thumbnail or
+	 * recorded since the application started. This costs a stat of the file
+	 * per lookup, which is far cheaper than hashing its content.
+	 * 
+	 * @return true if given source file has changed
+	 */
 
-		float aspectRatio = (float) sourceImage.getWidth()
-				/ (float) sourceImage.getHeight();
+	private static boolean isSourceChanged(ThumbnailKey key, File source,
+			Thumbnail thumbnail, Validation validation) {
+		long length = source.length();
+		long modified = source.lastModified();
 
-		if (aspectRatio > 1) {
-			calculatedWidth = maxWidth;
-			calculatedHeight = maxWidth / aspectRatio;
+		if (thumbnail.getSourceLength() >= 0) {
+			return length != thumbnail.getSourceLength()
+					|| modified != thumbnail.getSourceModified();
+		}
 
-			if (calculatedHeight > maxHeight) {
-				calculatedWidth = maxHeight * aspectRatio;
-				calculatedHeight = calculatedWidth / aspectRatio;
+		if (validation == null || validation.length < 0) {
+			// Image was scaled before a restart. Source written after the
+			// stored thumbnail has changed since, otherwise its current
+			// state is trusted.
+			File stored = thumbnail.getFile();
+			if (stored != null && modified > stored.lastModified()) {
+				return true;
 			}
-		} else {
-			calculatedWidth = maxHeight * aspectRatio;
-			calculatedHeight = maxHeight;
 
-			if (calculatedWidth > maxWidth) {
-				calculatedHeight = maxWidth / aspectRatio;
-				calculatedWidth = calculatedHeight * aspectRatio;
-			}
+			validations.put(key, new Validation(length, modified));
+			return false;
+		}
+
+		return length != validation.length || modified != validation.modified;
+	}
+
+	private static RemoteImageFetcher.Response fetchImage(ThumbnailKey key,
+			String url, String eTag, String lastModified) throws IOException {
+		long start = System.nanoTime();
+		RemoteImageFetcher.Response response = fetcher.fetch(url, eTag,
+				lastModified);
+		fireStageCompleted(key, Stage.FETCH, start);
+
+		if (!response.isNotModified()) {
+			long length = response.getData().length;
+			fire(listener -> listener.sourceRead(key, length));
+		}
+
+		return response;
+	}
+
+	/**
+	 * Decodes, scales and stores given source while holding its share of the
+	 * memory budget
+	 */
+
+	private static Thumbnail storeDecodedImage(ThumbnailKey key,
+			Object source, long sourceLength, long sourceModified)
+			throws IOException, ImageToolsException {
+		try (MemoryBudget.Reservation reservation = memoryBudget.open()) {
+			Dimension sourceSize = new Dimension();
+			Thumbnail out = storeScaledImage(key, decodeImage(key, source,
+					reservation, sourceSize), sourceLength, sourceModified);
+			out.setSourceSize(sourceSize.width, sourceSize.height);
+
+			return out;
 		}
+	}
+
+	private static BufferedImage decodeImage(ThumbnailKey key, Object source,
+			MemoryBudget.Reservation reservation, Dimension sourceSize)
+			throws IOException, ImageToolsException {
+		long start = System.nanoTime();
+		BufferedImage sourceImage = readSourceImage(source,
+				key.getMaxWidth(), key.getMaxHeight(), reservation, sourceSize);
+		fireStageCompleted(key, Stage.DECODE, start);
+
+		return sourceImage;
+	}
+
+	private static Thumbnail storeRemoteImage(ThumbnailKey key,
+			RemoteImageFetcher.Response response) throws IOException,
+			ImageToolsException {
+		Thumbnail out = storeDecodedImage(key, response.getData(), -1, -1);
+
+		validations.put(key,
+				new Validation(response.getETag(), response.getLastModified()));
+		return out;
+	}
 
-		// Create empty image with new dimensions
-		BufferedImage scaledImage = new BufferedImage((int) calculatedWidth,
-				(int) calculatedHeight, BufferedImage.TYPE_INT_RGB);
+	private static Thumbnail storeScaledImage(ThumbnailKey key,
+			BufferedImage sourceImage, long sourceLength, long sourceModified)
+			throws IOException {
+		long start = System.nanoTime();
+		BufferedImage scaledImage = scaleBufferedImage(sourceImage,
+				key.getMaxWidth(), key.getMaxHeight(), key.getEncoding()
+						.supportsAlpha(), key.getScaler());
+		fireStageCompleted(key, Stage.SCALE, start);
+
+		String placeholderColor = calculatePlaceholderColor(scaledImage);
 
-		Graphics2D graphics = (Graphics2D) scaledImage.getGraphics();
-		graphics.setComposite(AlphaComposite.Src);
+		start = System.nanoTime();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		encodeImage(scaledImage, key, output);
+		fireStageCompleted(key, Stage.ENCODE, start);
 
-		// Draw to scaled image
-		graphics.drawImage(sourceImage, 0, 0, (int) calculatedWidth,
-				(int) calculatedHeight, null);
+		int width = scaledImage.getWidth();
+		int height = scaledImage.getHeight();
+		ScalingPool.get().recycleImage(scaledImage);
 
-		graphics.dispose();
+		Thumbnail out = writeScaledImageToDisk(key, output.toByteArray(),
+				width, height, sourceLength, sourceModified);
+		out.setPlaceholderColor(placeholderColor);
 
-		return scaledImage;
+		scaledImages.put(out);
+		return out;
 	}
 
 	/**
-	 * @param imageFile
-	 * @return width of image in pixels from given file
-	 * @throws ImageToolsException
+	 * Looks up scaled image first from the cache and then from the persistent
+	 * store. Images found from the store are added to the cache.
+	 * 
+	 * @param key
+	 * @return scaled image or null if given key has not been scaled yet
 	 */
 
-	public static int getImageWidth(File imageFile) throws ImageToolsException {
-		try {
-			BufferedImage sourceImage = ImageIO.read(imageFile);
-			return sourceImage.getWidth();
-		} catch (Exception e) {
-			throw new ImageToolsException("Error retrieving image's width");
+	private static Thumbnail findScaledImage(ThumbnailKey key) {
+		Thumbnail cached = scaledImages.get(key);
+		if (cached != null) {
+			return cached;
 		}
+
+		Thumbnail stored = store.get(key);
+		if (stored != null) {
+			scaledImages.put(stored);
+		}
+
+		return stored;
+	}
+
+	private static Thumbnail writeScaledImageToDisk(ThumbnailKey key,
+			byte[] data, int width, int height, long sourceLength,
+			long sourceModified) throws IOException {
+		long start = System.nanoTime();
+		Thumbnail out = store.put(key, data, width, height, sourceLength,
+				sourceModified);
+		fireStageCompleted(key, Stage.WRITE, start);
+
+		fire(listener -> listener.thumbnailWritten(out));
+		return out;
 	}
 
 	/**
-	 * @param imageFile
-	 * @return height of image in pixels from given file
-	 * @throws ImageToolsException
+	 * Encodes given scaled image with the encoding of given key. Quality and
+	 * progressive mode are applied if the writer of the format supports them.
+	 * 
+	 * @param scaledImage
+	 * @param key
+	 * @param output
+	 * @throws IOException
+	 *             if there is no writer for the format or writing fails
 	 */
 
-	public static int getImageHeight(File imageFile) throws ImageToolsException {
+	static void encodeImage(BufferedImage scaledImage, ThumbnailKey key,
+			OutputStream output) throws IOException {
+		encodeImage(scaledImage, key.getEncoding(), output);
+	}
+
+	static void encodeImage(BufferedImage scaledImage,
+			ImageEncoding encoding, OutputStream output) throws IOException {
+		ImageWriter writer = ScalingPool.get().takeWriter(
+				encoding.getFormat());
+
+		if (writer == null) {
+			throw new IOException("No writer found for format "
+					+ encoding.getFormat());
+		}
+
 		try {
-			BufferedImage sourceImage = ImageIO.read(imageFile);
-			return sourceImage.getHeight();
-		} catch (Exception e) {
-			throw new ImageToolsException("Error retrieving image's height");
+			ImageWriteParam param = writer.getDefaultWriteParam();
+
+			if (encoding.getQuality() != ImageEncoding.DEFAULT_QUALITY
+					&& param.canWriteCompressed()) {
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+
+				if (param.getCompressionType() == null) {
+					param.setCompressionType(param.getCompressionTypes()[0]);
+				}
+
+				param.setCompressionQuality(encoding.getQuality());
+			}
+
+			if (encoding.isProgressive() && param.canWriteProgressive()) {
+				param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+			}
+
+			ImageOutputStream imageOutput = ImageIO
+					.createImageOutputStream(output);
+
+			try {
+				writer.setOutput(imageOutput);
+				writer.write(null, new IIOImage(scaledImage, null, null),
+						param);
+			} finally {
+				imageOutput.close();
+			}
+		} finally {
+			ScalingPool.get().releaseWriter(encoding.getFormat(), writer);
 		}
 	}
 
-	public static void clearCache() {
-		scaledImages.clear();
+	/**
+	 * Decodes source image from given input. Large images are subsampled
+	 * while decoding so that the decoded raster is only about twice the size
+	 * of the scaled image instead of the full resolution of the source. If
+	 * embedded thumbnails are enabled and the source carries one that covers
+	 * the scaled size, the embedded thumbnail is decoded instead.
+	 * 
+	 * @param source
+	 *            File, InputStream or byte array to read the image from
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @param sourceSize
+	 *            set to the full dimensions of the source image
+	 * @return decoded source image
+	 * @throws IOException
+	 *             if image cannot be read or its format is not supported
+	 */
+
+	private static BufferedImage readSourceImage(Object source, int maxWidth,
+			int maxHeight, MemoryBudget.Reservation reservation,
+			Dimension sourceSize) throws IOException, ImageToolsException {
+		ImageInputStream input;
+
+		if (source instanceof byte[]) {
+			// Downloaded image is already in memory, no need for a cache file
+			input = new MemoryCacheImageInputStream(new ByteArrayInputStream(
+					(byte[]) source));
+		} else {
+			input = ImageIO.createImageInputStream(source);
+		}
+
+		if (input == null) {
+			throw new IOException("Unable to open image input");
+		}
+
+		try {
+			ImageReader reader = ScalingPool.get().takeReader(input);
+
+			if (reader == null) {
+				throw new IOException("Unsupported image format");
+			}
+
+			try {
+				// EXIF segment is read before the reader moves past it
+				byte[] exifThumbnail = null;
+				if (embeddedThumbnails
+						&& "jpeg".equalsIgnoreCase(reader.getFormatName())) {
+					exifThumbnail = ExifThumbnailReader.read(input);
+					input.seek(0);
+				}
+
+				reader.setInput(input, true, true);
+				sourceSize.setSize(reader.getWidth(0), reader.getHeight(0));
+
+				if (embeddedThumbnails) {
+					BufferedImage embedded = readEmbeddedThumbnail(reader,
+							exifThumbnail, maxWidth, maxHeight, reservation);
+
+					if (embedded != null) {
+						return embedded;
+					}
+				}
+
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+				int subsampling = calculateSubsampling(width, height,
+						maxWidth, maxHeight);
+
+				int decodedWidth = (width + subsampling - 1) / subsampling;
+				int decodedHeight = (height + subsampling - 1) / subsampling;
+				Dimension scaled = calculateScaledSize(decodedWidth,
+						decodedHeight, maxWidth, maxHeight);
+				reservation.reserve(MemoryBudget.estimate(decodedWidth,
+						decodedHeight, scaled.width, scaled.height));
+
+				ImageReadParam param = reader.getDefaultReadParam();
+				if (subsampling > 1) {
+					param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				}
+
+				return reader.read(0, param);
+			} finally {
+				ScalingPool.get().releaseReader(reader);
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Reads the thumbnail embedded to the source image, either through the
+	 * thumbnail API of the reader or from the EXIF segment of a JPEG image
+	 * 
+	 * @param reader
+	 *            reader positioned to the source image
+	 * @param exifThumbnail
+	 *            encoded EXIF thumbnail or null
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @param reservation
+	 *            reservation the decoded thumbnail is counted to
+	 * @return embedded thumbnail or null if there is none that has the aspect
+	 *         ratio of the source image and covers the scaled size
+	 * @throws IOException
+	 * @throws ImageToolsException
+	 *             if the decoded thumbnail does not fit to the memory budget
+	 */
+
+	private static BufferedImage readEmbeddedThumbnail(ImageReader reader,
+			byte[] exifThumbnail, int maxWidth, int maxHeight,
+			MemoryBudget.Reservation reservation) throws IOException,
+			ImageToolsException {
+		ImageInputStream exifInput = null;
+		ImageReader exifReader = null;
+
+		try {
+			int thumbnailWidth;
+			int thumbnailHeight;
+
+			// Dimensions are read from the header so that a thumbnail that
+			// will not be used is never decoded
+			if (reader.readerSupportsThumbnails()
+					&& reader.getNumThumbnails(0) > 0) {
+				thumbnailWidth = reader.getThumbnailWidth(0, 0);
+				thumbnailHeight = reader.getThumbnailHeight(0, 0);
+			} else if (exifThumbnail != null) {
+				exifInput = new MemoryCacheImageInputStream(
+						new ByteArrayInputStream(exifThumbnail));
+				exifReader = ScalingPool.get().takeReader(exifInput);
+
+				if (exifReader == null) {
+					return null;
+				}
+
+				exifReader.setInput(exifInput, true, true);
+				thumbnailWidth = exifReader.getWidth(0);
+				thumbnailHeight = exifReader.getHeight(0);
+			} else {
+				return null;
+			}
+
+			int width = reader.getWidth(0);
+			int height = reader.getHeight(0);
+
+			// Thumbnail padded to another aspect ratio would show its bars
+			Dimension fitted = calculateScaledSize(width, height,
+					thumbnailWidth, thumbnailHeight);
+			if (Math.abs(fitted.width - thumbnailWidth) > 1
+					|| Math.abs(fitted.height - thumbnailHeight) > 1) {
+				return null;
+			}
+
+			Dimension scaled = calculateScaledSize(width, height, maxWidth,
+					maxHeight);
+			if (thumbnailWidth < scaled.width
+					|| thumbnailHeight < scaled.height) {
+				return null;
+			}
+
+			reservation.reserve(MemoryBudget.estimate(thumbnailWidth,
+					thumbnailHeight, scaled.width, scaled.height));
+
+			return exifReader != null ? exifReader.read(0) : reader
+					.readThumbnail(0, 0);
+		} finally {
+			if (exifReader != null) {
+				ScalingPool.get().releaseReader(exifReader);
+			}
+			if (exifInput != null) {
+				exifInput.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns the average color of given thumbnail, which clients can show
+	 * until the thumbnail itself has been loaded. Color is calculated while
+	 * scaling, thumbnails read from a store are decoded once to calculate
+	 * it.
+	 * 
+	 * @param thumbnail
+	 * @return CSS color, such as "#a0b1c2", or null if the thumbnail cannot
+	 *         be read
+	 */
+
+	public static String getPlaceholderColor(Thumbnail thumbnail) {
+		String color = thumbnail.getPlaceholderColor();
+
+		if (color == null) {
+			try (InputStream stream = thumbnail.openStream()) {
+				BufferedImage image = ImageIO.read(stream);
+
+				if (image != null) {
+					color = calculatePlaceholderColor(image);
+					thumbnail.setPlaceholderColor(color);
+				}
+			} catch (IOException e) {
+				return null;
+			}
+		}
+
+		return color;
+	}
+
+	/**
+	 * @param image
+	 * @return average color of given image weighted by alpha as a CSS color
+	 */
+
+	static String calculatePlaceholderColor(BufferedImage image) {
+		boolean alpha = image.getColorModel().hasAlpha();
+		BufferedImage average = ImageScaler.BOX.scale(image, 1, 1, alpha);
+		int pixel = average.getRGB(0, 0);
+		ScalingPool.get().recycleImage(average);
+
+		if (alpha && (pixel >>> 24) == 0) {
+			return "transparent";
+		}
+
+		return String.format("#%06x", pixel & 0xffffff);
+	}
+
+	/**
+	 * Calculates how many source pixels can be skipped in each direction
+	 * while still leaving at least twice the scaled size for the final
+	 * scaling step.
+	 * 
+	 * @param sourceWidth
+	 * @param sourceHeight
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @return subsampling factor, 1 if image should be read in full
+	 */
+
+	static int calculateSubsampling(int sourceWidth, int sourceHeight,
+			int maxWidth, int maxHeight) {
+		Dimension scaled = calculateScaledSize(sourceWidth, sourceHeight,
+				maxWidth, maxHeight);
+
+		int horizontal = sourceWidth / (2 * Math.max(1, scaled.width));
+		int vertical = sourceHeight / (2 * Math.max(1, scaled.height));
+
+		return Math.max(1, Math.min(horizontal, vertical));
+	}
+
+	static BufferedImage scaleBufferedImage(BufferedImage sourceImage,
+			int maxWidth, int maxHeight, boolean keepAlpha) {
+		return scaleBufferedImage(sourceImage, maxWidth, maxHeight,
+				keepAlpha, ImageScaler.DEFAULT);
+	}
+
+	static BufferedImage scaleBufferedImage(BufferedImage sourceImage,
+			int maxWidth, int maxHeight, boolean keepAlpha, ImageScaler scaler) {
+		Dimension scaled = calculateScaledSize(sourceImage.getWidth(),
+				sourceImage.getHeight(), maxWidth, maxHeight);
+
+		// Transparency is only kept if the output format can carry it
+		boolean alpha = keepAlpha && sourceImage.getColorModel().hasAlpha();
+
+		return scaler.scale(sourceImage, scaled.width, scaled.height, alpha);
+	}
+
+	/**
+	 * Calculates dimensions of an image scaled to fit given maximum
+	 * dimensions while maintaining its aspect ratio.
+	 * 
+	 * @param sourceWidth
+	 * @param sourceHeight
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @return scaled dimensions
+	 */
+
+	static Dimension calculateScaledSize(int sourceWidth, int sourceHeight,
+			int maxWidth, int maxHeight) {
+		// Calculate scaled image's dimensions
+		float calculatedWidth = 0;
+		float calculatedHeight = 0;
+
+		float aspectRatio = (float) sourceWidth / (float) sourceHeight;
+
+		if (aspectRatio > 1) {
+			calculatedWidth = maxWidth;
+			calculatedHeight = maxWidth / aspectRatio;
+
+			if (calculatedHeight > maxHeight) {
+				calculatedWidth = maxHeight * aspectRatio;
+				calculatedHeight = calculatedWidth / aspectRatio;
+			}
+		} else {
+			calculatedWidth = maxHeight * aspectRatio;
+			calculatedHeight = maxHeight;
+
+			if (calculatedWidth > maxWidth) {
+				calculatedHeight = maxWidth / aspectRatio;
+				calculatedWidth = calculatedHeight * aspectRatio;
+			}
+		}
+
+		return new Dimension(Math.max(1, (int) calculatedWidth),
+				Math.max(1, (int) calculatedHeight));
+	}
+
+	/**
+	 * @param imageFile
+	 * @return width of image in pixels from given file
+	 * @throws ImageToolsException
+	 */
+
+	public static int getImageWidth(File imageFile) throws ImageToolsException {
+		return getImageDimension(imageFile).width;
+	}
+
+	/**
+	 * @param imageFile
+	 * @return height of image in pixels from given file
+	 * @throws ImageToolsException
+	 */
+
+	public static int getImageHeight(File imageFile) throws ImageToolsException {
+		return getImageDimension(imageFile).height;
+	}
+
+	/**
+	 * Reads dimensions of the image in given file. Only the header of the
+	 * image is read, pixel data is not decoded.
+	 * 
+	 * @param imageFile
+	 * @return width and height of image in pixels from given file
+	 * @throws ImageToolsException
+	 *             if file cannot be read or its format is not supported
+	 */
+
+	public static Dimension getImageDimension(File imageFile)
+			throws ImageToolsException {
+		ImageInputStream input = null;
+
+		try {
+			input = ImageIO.createImageInputStream(imageFile);
+
+			ImageReader reader = input != null ? ScalingPool.get()
+					.takeReader(input) : null;
+
+			if (reader != null) {
+				try {
+					reader.setInput(input, true, true);
+					return new Dimension(reader.getWidth(0),
+							reader.getHeight(0));
+				} finally {
+					ScalingPool.get().releaseReader(reader);
+				}
+			}
+		} catch (IOException e) {
+			throw new ImageToolsException("Error retrieving image's dimensions "
+					+ e.getMessage());
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (Exception ignored) {
+					// NOP
+				}
+			}
+		}
+
+		throw new ImageToolsException("Error retrieving image's dimensions");
+	}
+
+	/**
+	 * @return cache of scaled images, can be used to configure its limits
+	 */
+
+	public static ThumbnailCache getCache() {
+		return scaledImages;
+	}
+
+	/**
+	 * @return store where scaled images are written to
+	 */
+
+	public static ThumbnailStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Sets the store where scaled images are written to. By default scaled
+	 * images are written to a DirectoryThumbnailStore, a MemoryThumbnailStore
+	 * can be used to keep small thumbnails off the disk altogether.
+	 * 
+	 * @param thumbnailStore
+	 */
+
+	public static void setStore(ThumbnailStore thumbnailStore) {
+		if (thumbnailStore == null) {
+			throw new IllegalArgumentException("Store must be given");
+		}
+
+		store = thumbnailStore;
+		clearCache();
+	}
+
+	/**
+	 * Sets the directory where scaled images are stored. Images already
+	 * stored in the directory are served without scaling them again.
+	 * 
+	 * @param directory
+	 */
+
+	public static void setStorageDirectory(File directory) {
+		setStore(new DirectoryThumbnailStore(directory));
+	}
+
+	private static File defaultStorageDirectory() {
+		String directory = System.getProperty(STORAGE_DIRECTORY_PROPERTY);
+
+		if (directory != null) {
+			return new File(directory);
+		}
+
+		return new File(System.getProperty("java.io.tmpdir"), "imagestrip");
+	}
+
+	/**
+	 * @return maximum estimated size in bytes of the images that are decoded
+	 *         and scaled at the same time
+	 */
+
+	public static long getMemoryBudget() {
+		return memoryBudget.getBytes();
+	}
+
+	/**
+	 * Sets the maximum estimated size of the source and scaled images that
+	 * are held in memory at the same time. Before decoding, each resize
+	 * reserves four bytes per pixel of its subsampled source and of its
+	 * scaled image. Resizes that do not fit wait for others to finish. An
+	 * image larger than the whole budget is resized alone. Resizes already
+	 * running keep their reservations in the previous budget. Half of the
+	 * maximum heap by default.
+	 * 
+	 * @param bytes
+	 * @throws IllegalArgumentException
+	 *             if bytes is not positive
+	 */
+
+	public static void setMemoryBudget(long bytes) {
+		if (bytes <= 0) {
+			throw new IllegalArgumentException(
+					"Memory budget must be positive");
+		}
+
+		memoryBudget = new MemoryBudget(bytes, memoryBudget.getTimeout());
+	}
+
+	/**
+	 * @return time in milliseconds a resize waits for the memory budget
+	 */
+
+	public static long getMemoryBudgetTimeout() {
+		return memoryBudget.getTimeout();
+	}
+
+	/**
+	 * Sets the time a resize waits for the memory budget before it fails
+	 * with an ImageToolsException
+	 * 
+	 * @param timeout
+	 *            time in milliseconds, 0 to fail right away when the budget
+	 *            is exhausted
+	 * @throws IllegalArgumentException
+	 *             if timeout is negative
+	 */
+
+	public static void setMemoryBudgetTimeout(long timeout) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("Timeout must not be negative");
+		}
+
+		memoryBudget = new MemoryBudget(memoryBudget.getBytes(), timeout);
+	}
+
+	/**
+	 * @return budget that new resizes reserve memory from
+	 */
+
+	static MemoryBudget currentMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @return fetcher used for downloading source images from URLs
+	 */
+
+	public static RemoteImageFetcher getFetcher() {
+		return fetcher;
+	}
+
+	/**
+	 * Sets the fetcher used for downloading source images from URLs
+	 * 
+	 * @param remoteImageFetcher
+	 */
+
+	public static void setFetcher(RemoteImageFetcher remoteImageFetcher) {
+		if (remoteImageFetcher == null) {
+			throw new IllegalArgumentException("Fetcher must be given");
+		}
+
+		fetcher = remoteImageFetcher;
+	}
+
+	/**
+	 * @return true if thumbnails embedded to source images are used
+	 */
+
+	public static boolean isEmbeddedThumbnails() {
+		return embeddedThumbnails;
+	}
+
+	/**
+	 * Sets whether thumbnails that cameras embed to source images are used
+	 * instead of decoding the full image, when the embedded thumbnail has the
+	 * aspect ratio of the image and is at least the size of the scaled image.
+	 * This saves most of the decoding of large photos, but embedded
+	 * thumbnails are compressed more heavily and are not always updated by
+	 * image editors. Disabled by default.
+	 * 
+	 * @param embeddedThumbnails
+	 */
+
+	public static void setEmbeddedThumbnails(boolean embeddedThumbnails) {
+		ImageTools.embeddedThumbnails = embeddedThumbnails;
+	}
+
+	/**
+	 * @return number of source pixels from which images are scaled in
+	 *         parallel
+	 */
+
+	public static long getParallelScalingThreshold() {
+		return parallelScalingThreshold;
+	}
+
+	/**
+	 * Sets the number of pixels a decoded source image needs to have to be
+	 * scaled in parallel. Such images are split into bands of rows that are
+	 * scaled in the common ForkJoinPool, which brings the latency of scaling
+	 * a single very large image down with the number of cores. Applies to
+	 * all built-in scalers except the default and the progressive one, which
+	 * draw with Graphics2D in the calling thread. Smaller images are
+	 * scaled by the calling thread, as many of them are usually resized at
+	 * once.
+	 * 
+	 * @param pixels
+	 *            threshold in pixels, Long.MAX_VALUE to always scale in the
+	 *            calling thread
+	 * @throws IllegalArgumentException
+	 *             if pixels is not positive
+	 */
+
+	public static void setParallelScalingThreshold(long pixels) {
+		if (pixels <= 0) {
+			throw new IllegalArgumentException("Threshold must be positive");
+		}
+
+		parallelScalingThreshold = pixels;
+	}
+
+	/**
+	 * Adds a listener that is notified of cache hits, misses and evictions
+	 * and of the stages of resizing images
+	 * 
+	 * @param listener
+	 */
+
+	public static void addListener(ThumbnailListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener must be given");
+		}
+
+		listeners.add(listener);
+		scaledImages.addListener(listener);
+	}
+
+	public static void removeListener(ThumbnailListener listener) {
+		listeners.remove(listener);
+		scaledImages.removeListener(listener);
+	}
+
+	/**
+	 * Notifies listeners that an image was submitted for scaling in the
+	 * background
+	 */
+
+	static void fireScalingQueued() {
+		fire(ThumbnailListener::scalingQueued);
+	}
+
+	/**
+	 * Notifies listeners that an image submitted for scaling in the
+	 * background has been scaled or has failed
+	 */
+
+	static void fireScalingFinished() {
+		fire(ThumbnailListener::scalingFinished);
+	}
+
+	private static void fireStageCompleted(ThumbnailKey key, Stage stage,
+			long start) {
+		long nanos = System.nanoTime() - start;
+		fire(listener -> listener.stageCompleted(key, stage, nanos));
+	}
+
+	private static void fire(Consumer<ThumbnailListener> event) {
+		for (ThumbnailListener listener : listeners) {
+			try {
+				event.accept(listener);
+			} catch (RuntimeException ignored) {
+				// Listeners must not break resizing
+			}
+		}
+	}
+
+	public static void clearCache() {
+		scaledImages.clear();
+		validations.clear();
+	}
+
+	/**
+	 * Drops the scaled images of given source file from the cache and from
+	 * their store, so that the next resize reads the file again. Scaled
+	 * images that are no longer cached are removed from the store by the
+	 * keys they were looked up with since the application started. Changed
+	 * files are noticed on lookup anyway, this is for callers that learn of
+	 * the change first, such as ThumbnailInvalidator.
+	 * 
+	 * @param imageFile
+	 * @return number of scaled images dropped
+	 */
+
+	public static int invalidate(File imageFile) {
+		String source = imageFile.getAbsolutePath();
+		Set<ThumbnailKey> keys = new HashSet<ThumbnailKey>();
+
+		for (Thumbnail thumbnail : scaledImages.getThumbnails()) {
+			if (source.equals(thumbnail.getKey().getSource())) {
+				keys.add(thumbnail.getKey());
+			}
+		}
+
+		synchronized (validations) {
+			for (Iterator<ThumbnailKey> i = validations.keySet().iterator(); i
+					.hasNext();) {
+				ThumbnailKey key = i.next();
+
+				if (source.equals(key.getSource())) {
+					keys.add(key);
+					i.remove();
+				}
+			}
+		}
+
+		int count = 0;
+
+		for (ThumbnailKey key : keys) {
+			boolean dropped = false;
+
+			Thumbnail cached = scaledImages.remove(key);
+			if (cached != null) {
+				cached.getStore().remove(cached);
+				dropped = true;
+			}
+
+			Thumbnail stored = store.get(key);
+			if (stored != null) {
+				store.remove(stored);
+				dropped = true;
+			}
+
+			if (dropped) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Validators of a source image. Downloaded images are validated with
+	 * HTTP validators and files with their size and modification time.
+	 */
+
+	private static class Validation {
+
+		private final String eTag;
+		private final String lastModified;
+
+		private final long length;
+		private final long modified;
+
+		/**
+		 * Time the source was last downloaded or checked
+		 */
+
+		private final long checked = System.currentTimeMillis();
+
+		private Validation(String eTag, String lastModified) {
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.length = -1;
+			this.modified = -1;
+		}
+
+		private Validation(long length, long modified) {
+			this.eTag = null;
+			this.lastModified = null;
+			this.length = length;
+			this.modified = modified;
+		}
 	}
 }
@@ -0,0 +1,161 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales images with a separable Lanczos filter of three lobes, first along
+ * rows and then along columns. When reducing, the filter is stretched to
+ * cover every source pixel. Colors are premultiplied with alpha while
+ * filtering.
+ */
+
+class LanczosImageScaler extends RasterImageScaler {
+
+	private static final long serialVersionUID = 3427391209446386741L;
+
+	private static final int LOBES = 3;
+
+	@Override
+	public String getName() {
+		return "lanczos3";
+	}
+
+	@Override
+	void scaleBand(BufferedImage source, BufferedImage scaledImage, int top,
+			int bottom, boolean alpha) {
+		int sourceWidth = source.getWidth();
+		int sourceHeight = source.getHeight();
+		int width = scaledImage.getWidth();
+		int height = scaledImage.getHeight();
+
+		Filter horizontal = new Filter(sourceWidth, width);
+		Filter vertical = new Filter(sourceHeight, height);
+
+		// Source rows under the band, filter windows only move down
+		int first = vertical.starts[top];
+		int last = vertical.starts[bottom - 1]
+				+ vertical.weights[bottom - 1].length;
+
+		// Rows filtered horizontally, four channels per pixel
+		float[] filtered = new float[width * (last - first) * 4];
+		Rows rows = new Rows(source);
+
+		for (int sy = first; sy < last; sy++) {
+			int offset = rows.read(sy);
+			int[] pixels = rows.pixels();
+			int index = (sy - first) * width * 4;
+
+			for (int x = 0; x < width; x++) {
+				float a = 0, r = 0, g = 0, b = 0;
+				int start = horizontal.starts[x];
+				float[] weights = horizontal.weights[x];
+
+				for (int i = 0; i < weights.length; i++) {
+					int pixel = pixels[offset + start + i];
+					float pa = alpha ? (pixel >>> 24) / 255f : 1;
+					float weight = weights[i];
+
+					a += weight * pa;
+					r += weight * pa * ((pixel >> 16) & 0xff);
+					g += weight * pa * ((pixel >> 8) & 0xff);
+					b += weight * pa * (pixel & 0xff);
+				}
+
+				filtered[index++] = a;
+				filtered[index++] = r;
+				filtered[index++] = g;
+				filtered[index++] = b;
+			}
+		}
+
+		int[] target = pixelsOf(scaledImage);
+
+		for (int y = top; y < bottom; y++) {
+			int start = vertical.starts[y] - first;
+			float[] weights = vertical.weights[y];
+
+			for (int x = 0; x < width; x++) {
+				float a = 0, r = 0, g = 0, b = 0;
+
+				for (int i = 0; i < weights.length; i++) {
+					int index = ((start + i) * width + x) * 4;
+					float weight = weights[i];
+
+					a += weight * filtered[index];
+					r += weight * filtered[index + 1];
+					g += weight * filtered[index + 2];
+					b += weight * filtered[index + 3];
+				}
+
+				int pa = clamp(a * 255);
+				float unmultiply = a > 0 ? 1 / a : 0;
+
+				target[y * width + x] = ((alpha ? pa : 0xff) << 24)
+						| (clamp(r * unmultiply) << 16)
+						| (clamp(g * unmultiply) << 8)
+						| clamp(b * unmultiply);
+			}
+		}
+	}
+
+	private static int clamp(float value) {
+		int rounded = Math.round(value);
+		return rounded < 0 ? 0 : rounded > 255 ? 255 : rounded;
+	}
+
+	/**
+	 * Normalized weights of the source pixels that contribute to each scaled
+	 * pixel along one axis
+	 */
+
+	private static final class Filter {
+
+		private final int[] starts;
+		private final float[][] weights;
+
+		private Filter(int sourceSize, int size) {
+			double scale = (double) sourceSize / size;
+			double stretch = Math.max(1, scale);
+			double support = LOBES * stretch;
+
+			starts = new int[size];
+			weights = new float[size][];
+
+			for (int i = 0; i < size; i++) {
+				double center = (i + 0.5) * scale;
+				int start = Math.max(0, (int) Math.floor(center - support));
+				int end = Math.min(sourceSize,
+						(int) Math.ceil(center + support));
+
+				float[] pixelWeights = new float[end - start];
+				double total = 0;
+
+				for (int j = start; j < end; j++) {
+					double weight = lanczos((j + 0.5 - center) / stretch);
+					pixelWeights[j - start] = (float) weight;
+					total += weight;
+				}
+
+				for (int j = 0; j < pixelWeights.length; j++) {
+					pixelWeights[j] /= total;
+				}
+
+				starts[i] = start;
+				weights[i] = pixelWeights;
+			}
+		}
+
+		private static double lanczos(double x) {
+			if (x == 0) {
+				return 1;
+			}
+
+			if (x <= -LOBES || x >= LOBES) {
+				return 0;
+			}
+
+			double px = Math.PI * x;
+			return LOBES * Math.sin(px) * Math.sin(px / LOBES) / (px * px);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package org.vaadin.peter.imagestrip;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MemoryBudget bounds the heap used by decoding and scaling images at the
+ * same time. Each resize reserves the estimated size of its source and
+ * scaled rasters before decoding and releases it once the scaled image has
+ * been encoded. Resizes that do not fit wait for a timeout and then fail.
+ *
+ * Budget is counted in kilobytes so that it fits to the permits of a
+ * semaphore. An image larger than the whole budget reserves all of it, so
+ * it is decoded alone instead of never.
+ */
+
+final class MemoryBudget {
+
+	private static final int KILOBYTE = 1024;
+
+	private final Semaphore permits;
+	private final int totalPermits;
+	private final long timeout;
+
+	/**
+	 * @param bytes
+	 *            total size of the budget
+	 * @param timeout
+	 *            milliseconds a resize waits for the budget, 0 to fail
+	 *            right away
+	 */
+
+	MemoryBudget(long bytes, long timeout) {
+		this.totalPermits = toPermits(bytes);
+		this.permits = new Semaphore(totalPermits, true);
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return empty reservation that is released by closing it
+	 */
+
+	Reservation open() {
+		return new Reservation();
+	}
+
+	/**
+	 * @return total size of the budget in bytes
+	 */
+
+	long getBytes() {
+		return (long) totalPermits * KILOBYTE;
+	}
+
+	/**
+	 * @return size of the budget that is not reserved in bytes
+	 */
+
+	long getAvailableBytes() {
+		return (long) permits.availablePermits() * KILOBYTE;
+	}
+
+	long getTimeout() {
+		return timeout;
+	}
+
+	private static int toPermits(long bytes) {
+		long kilobytes = (bytes + KILOBYTE - 1) / KILOBYTE;
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, kilobytes));
+	}
+
+	/**
+	 * Estimates the heap used by decoding an image of given size and scaling
+	 * it to given size, counting four bytes per pixel
+	 *
+	 * @return estimated size in bytes
+	 */
+
+	static long estimate(int decodedWidth, int decodedHeight,
+			int scaledWidth, int scaledHeight) {
+		return 4L * ((long) decodedWidth * decodedHeight + (long) scaledWidth
+				* scaledHeight);
+	}
+
+	/**
+	 * Part of the budget held by a single resize
+	 */
+
+	final class Reservation implements AutoCloseable {
+
+		private int reserved;
+
+		private Reservation() {
+		}
+
+		/**
+		 * Reserves given amount of the budget, waiting for other resizes to
+		 * release it for at most the timeout of the budget
+		 *
+		 * @param bytes
+		 * @throws ImageToolsException
+		 *             if budget does not free up in time or if the thread
+		 *             is interrupted while waiting
+		 */
+
+		void reserve(long bytes) throws ImageToolsException {
+			int needed = Math.min(totalPermits, toPermits(bytes));
+
+			boolean acquired;
+			try {
+				acquired = timeout > 0 ? permits.tryAcquire(needed, timeout,
+						TimeUnit.MILLISECONDS) : permits.tryAcquire(needed);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ImageToolsException(
+						"Interrupted while waiting for memory to decode image");
+			}
+
+			if (!acquired) {
+				throw new ImageToolsException("Decoding image needs "
+						+ bytes / KILOBYTE + " kB but only "
+						+ getAvailableBytes() / KILOBYTE + " kB of the "
+						+ getBytes() / KILOBYTE
+						+ " kB memory budget is free, too many images are"
+						+ " being resized at once");
+			}
+
+			reserved += needed;
+		}
+
+		/**
+		 * Returns the reserved part to the budget
+		 */
+
+		@Override
+		public void close() {
+			if (reserved > 0) {
+				permits.release(reserved);
+				reserved = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package org.vaadin.peter.imagestrip;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MemoryThumbnailStore keeps encoded thumbnails in memory instead of writing
+ * them to the disk. Store is bounded by the total size of the encoded
+ * thumbnails, least recently used thumbnails are dropped when the budget is
+ * exceeded. Thumbnails are not kept over restarts.
+ *
+ * Thumbnails of this store have no file, ImageStrip serves them through a
+ * StreamResource.
+ */
+
+public class MemoryThumbnailStore implements ThumbnailStore {
+
+	/**
+	 * Default maximum total size of stored thumbnails in bytes
+	 */
+
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * Encoded thumbnails in access order, least recently used first
+	 */
+
+	private final LinkedHashMap<ThumbnailKey, Entry> entries;
+
+	private final long maxBytes;
+
+	private long totalBytes;
+
+	/**
+	 * Creates a store with default byte budget
+	 */
+
+	public MemoryThumbnailStore() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Creates a store with given byte budget
+	 *
+	 * @param maxBytes
+	 */
+
+	public MemoryThumbnailStore(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException(
+					"Maximum size of the store must be positive");
+		}
+
+		this.maxBytes = maxBytes;
+		entries = new LinkedHashMap<ThumbnailKey, Entry>(16, 0.75f, true);
+	}
+
+	@Override
+	public synchronized Thumbnail get(ThumbnailKey key) {
+		Entry entry = entries.get(key);
+		return entry != null ? entry.thumbnail : null;
+	}
+
+	@Override
+	public Thumbnail put(ThumbnailKey key, byte[] data, int width, int height) {
+		return put(key, data, width, height, -1, -1);
+	}
+
+	@Override
+	public Thumbnail put(ThumbnailKey key, byte[] data, int width,
+			int height, long sourceLength, long sourceModified) {
+		Thumbnail thumbnail = new Thumbnail(this, key, null, width, height,
+				data.length, sourceLength, sourceModified);
+
+		synchronized (this) {
+			Entry previous = entries.put(key, new Entry(thumbnail, data));
+
+			if (previous != null) {
+				totalBytes -= previous.data.length;
+			}
+
+			totalBytes += data.length;
+			evict();
+		}
+
+		return thumbnail;
+	}
+
+	@Override
+	public synchronized boolean contains(Thumbnail thumbnail) {
+		Entry entry = entries.get(thumbnail.getKey());
+		return entry != null && entry.thumbnail == thumbnail;
+	}
+
+	@Override
+	public InputStream openStream(Thumbnail thumbnail) throws IOException {
+		byte[] data;
+
+		synchronized (this) {
+			Entry entry = entries.get(thumbnail.getKey());
+			data = entry != null ? entry.data : null;
+		}
+
+		if (data == null) {
+			throw new FileNotFoundException("Thumbnail is no longer stored "
+					+ thumbnail.getKey());
+		}
+
+		return new ByteArrayInputStream(data);
+	}
+
+	@Override
+	public synchronized void remove(Thumbnail thumbnail) {
+		Entry entry = entries.get(thumbnail.getKey());
+
+		if (entry != null && entry.thumbnail == thumbnail) {
+			entries.remove(thumbnail.getKey());
+			totalBytes -= entry.data.length;
+		}
+	}
+
+	/**
+	 * @return number of thumbnails in this store
+	 */
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return total size of the stored thumbnails in bytes
+	 */
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return maximum total size of the stored thumbnails in bytes
+	 */
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<ThumbnailKey, Entry>> iterator = entries
+				.entrySet().iterator();
+
+		while (iterator.hasNext() && totalBytes > maxBytes) {
+			Entry eldest = iterator.next().getValue();
+			iterator.remove();
+
+			totalBytes -= eldest.data.length;
+		}
+	}
+
+	private static class Entry {
+
+		private final Thumbnail thumbnail;
+		private final byte[] data;
+
+		private Entry(Thumbnail thumbnail, byte[] data) {
+			this.thumbnail = thumbnail;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales images by picking the source pixel nearest to the center of each
+ * scaled pixel. Only the rows that are sampled are read from the source.
+ */
+
+class NearestImageScaler extends RasterImageScaler {
+
+	private static final long serialVersionUID = 6707484934316453788L;
+
+	@Override
+	public String getName() {
+		return "nearest";
+	}
+
+	@Override
+	void scaleBand(BufferedImage source, BufferedImage scaledImage, int top,
+			int bottom, boolean alpha) {
+		int sourceWidth = source.getWidth();
+		int sourceHeight = source.getHeight();
+		int width = scaledImage.getWidth();
+		int height = scaledImage.getHeight();
+
+		int[] target = pixelsOf(scaledImage);
+
+		int[] columns = new int[width];
+		for (int x = 0; x < width; x++) {
+			columns[x] = (int) ((2L * x + 1) * sourceWidth / (2L * width));
+		}
+
+		Rows rows = new Rows(source);
+
+		for (int y = top; y < bottom; y++) {
+			int offset = rows.read((int) ((2L * y + 1) * sourceHeight / (2L * height)));
+			int[] pixels = rows.pixels();
+			int index = y * width;
+
+			for (int x = 0; x < width; x++) {
+				target[index + x] = pixels[offset + columns[x]];
+			}
+		}
+	}
+}
@@ -0,0 +1,1023 @@
+package org.vaadin.peter.imagestrip;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PackedThumbnailStore appends encoded thumbnails to a few large segment
+ * files instead of writing one file per thumbnail. This keeps the number of
+ * files small for catalogs with hundreds of thousands of thumbnails.
+ *
+ * Each record in a segment carries the name of the thumbnail, its dimensions,
+ * size and modification time of its source file and its encoded bytes.
+ * Records written before source files were recorded are still read. The
+ * offset index is rebuilt lazily by scanning the segments when the store is
+ * accessed for the first time. Thumbnails are read as slices of memory mapped
+ * segments without copying them to the heap, or transferred directly to a
+ * channel with transferTo.
+ *
+ * Removed thumbnails are marked with a tombstone record. Their space is
+ * reclaimed by compact, which rewrites the live thumbnails of segments that
+ * are mostly garbage to the end of the store and deletes those segments once
+ * no read or transfer is using them. ThumbnailJanitor removes unused
+ * thumbnails and compacts the store.
+ */
+
+public class PackedThumbnailStore implements ThumbnailStore, Closeable {
+
+	/**
+	 * Default maximum size of a single segment file in bytes
+	 */
+
+	public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * Marks the start of a record without size and modification time of its
+	 * source
+	 */
+
+	private static final int RECORD_MAGIC = 0x49535450;
+
+	/**
+	 * Marks the start of a record with size and modification time of its
+	 * source
+	 */
+
+	private static final int SOURCE_RECORD_MAGIC = 0x49535453;
+
+	/**
+	 * Data length of a record that removes an earlier record
+	 */
+
+	private static final int TOMBSTONE = -1;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".pack";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File directory;
+	private final long segmentSize;
+
+	/**
+	 * Segments in the order they were created, the last one is appended to
+	 */
+
+	private final List<Segment> segments = new ArrayList<Segment>();
+
+	/**
+	 * Number in the file name of the next segment
+	 */
+
+	private int nextSegment;
+
+	/**
+	 * Locations of stored thumbnails by their name, null until the segments
+	 * are scanned
+	 */
+
+	private volatile Map<String, Location> index;
+
+	/**
+	 * Creates a store that keeps its segments in given directory with
+	 * default segment size
+	 *
+	 * @param directory
+	 */
+
+	public PackedThumbnailStore(File directory) {
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Creates a store that keeps its segments in given directory. A new
+	 * segment is started when appending to the current one would make it
+	 * larger than segmentSize.
+	 *
+	 * @param directory
+	 * @param segmentSize
+	 */
+
+	public PackedThumbnailStore(File directory, long segmentSize) {
+		if (directory == null) {
+			throw new IllegalArgumentException(
+					"Store directory must be given");
+		}
+
+		if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(
+					"Segment size must be positive and less than 2GB");
+		}
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * @return directory where this store keeps its segments
+	 */
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public Thumbnail get(ThumbnailKey key) {
+		Location location = getIndex().get(name(key));
+
+		if (location == null) {
+			return null;
+		}
+
+		location.lastAccess = System.currentTimeMillis();
+
+		synchronized (location) {
+			// Records read back from a segment only know the digest of their
+			// key, their thumbnail is created on the first lookup
+			if (location.thumbnail == null) {
+				location.thumbnail = new Thumbnail(this, key, null,
+						location.width, location.height, location.length,
+						location.sourceLength, location.sourceModified);
+			}
+
+			return location.thumbnail;
+		}
+	}
+
+	@Override
+	public Thumbnail put(ThumbnailKey key, byte[] data, int width, int height)
+			throws IOException {
+		return put(key, data, width, height, -1, -1);
+	}
+
+	@Override
+	public Thumbnail put(ThumbnailKey key, byte[] data, int width,
+			int height, long sourceLength, long sourceModified)
+			throws IOException {
+		String name = name(key);
+		Map<String, Location> locations = getIndex();
+
+		synchronized (this) {
+			Thumbnail thumbnail = new Thumbnail(this, key, null, width,
+					height, data.length, sourceLength, sourceModified);
+			Location location = append(name, width, height, sourceLength,
+					sourceModified, data, thumbnail);
+
+			index(locations, name, location);
+			return thumbnail;
+		}
+	}
+
+	@Override
+	public boolean isPersistent() {
+		return true;
+	}
+
+	@Override
+	public boolean contains(Thumbnail thumbnail) {
+		Location location = getIndex().get(name(thumbnail.getKey()));
+		return location != null && location.isOf(thumbnail);
+	}
+
+	@Override
+	public InputStream openStream(Thumbnail thumbnail) throws IOException {
+		return new ByteBufferInputStream(slice(thumbnail));
+	}
+
+	/**
+	 * Transfers the encoded bytes of given thumbnail directly from its
+	 * segment file to given channel
+	 *
+	 * @param thumbnail
+	 * @param target
+	 * @throws IOException
+	 *             if thumbnail is no longer stored or transfer fails
+	 */
+
+	public void transferTo(Thumbnail thumbnail, WritableByteChannel target)
+			throws IOException {
+		Location location = acquire(thumbnail);
+
+		try {
+			long position = location.dataOffset;
+			long remaining = location.length;
+
+			while (remaining > 0) {
+				long transferred = location.segment.channel.transferTo(
+						position, remaining, target);
+
+				if (transferred <= 0) {
+					throw new IOException("Unable to transfer thumbnail "
+							+ thumbnail.getKey());
+				}
+
+				position += transferred;
+				remaining -= transferred;
+			}
+		} finally {
+			location.segment.release();
+		}
+	}
+
+	@Override
+	public void remove(Thumbnail thumbnail) {
+		String name = name(thumbnail.getKey());
+		Map<String, Location> locations = getIndex();
+
+		synchronized (this) {
+			Location location = locations.get(name);
+
+			if (location != null && location.isOf(thumbnail)) {
+				remove(locations, name, location);
+			}
+		}
+	}
+
+	/**
+	 * Removes the thumbnail stored under given name
+	 *
+	 * @param name
+	 *            name of a stored record
+	 * @return true if thumbnail was removed, false if it was not stored
+	 */
+
+	boolean delete(String name) {
+		Map<String, Location> locations = getIndex();
+
+		synchronized (this) {
+			Location location = locations.get(name);
+
+			if (location == null) {
+				return false;
+			}
+
+			remove(locations, name, location);
+			return true;
+		}
+	}
+
+	/**
+	 * @return stored thumbnails in no particular order
+	 */
+
+	List<Stored> getStored() {
+		List<Stored> stored = new ArrayList<Stored>();
+
+		for (Map.Entry<String, Location> entry : getIndex().entrySet()) {
+			Location location = entry.getValue();
+			stored.add(new Stored(entry.getKey(), location.recordLength,
+					location.lastAccess));
+		}
+
+		return stored;
+	}
+
+	/**
+	 * Reclaims the space of removed thumbnails. Segments that are no longer
+	 * appended to and of which at least half is taken by removed thumbnails
+	 * and tombstones are rewritten: their live thumbnails are appended to the
+	 * current segment and the segment file is deleted. Thumbnails handed out
+	 * before compaction stay valid.
+	 *
+	 * @return number of segments deleted
+	 * @throws IOException
+	 *             if rewriting a segment fails
+	 */
+
+	public int compact() throws IOException {
+		Map<String, Location> locations = getIndex();
+
+		synchronized (this) {
+			int compacted = 0;
+
+			for (Segment segment : new ArrayList<Segment>(segments)) {
+				if (segment.sealed && segment.liveBytes * 2 <= segment.size) {
+					rewrite(locations, segment);
+					compacted++;
+				}
+			}
+
+			return compacted;
+		}
+	}
+
+	/**
+	 * @return number of thumbnails in this store
+	 */
+
+	public int size() {
+		return getIndex().size();
+	}
+
+	/**
+	 * @return number of segment files of this store
+	 */
+
+	public synchronized int getSegmentCount() {
+		getIndex();
+		return segments.size();
+	}
+
+	/**
+	 * @return size of the segment files of this store in bytes
+	 */
+
+	public synchronized long getSegmentBytes() {
+		getIndex();
+
+		long bytes = 0;
+		for (Segment segment : segments) {
+			bytes += segment.size;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Closes the segment files of this store
+	 */
+
+	@Override
+	public synchronized void close() throws IOException {
+		for (Segment segment : segments) {
+			segment.channel.close();
+		}
+
+		segments.clear();
+		index = null;
+	}
+
+	/**
+	 * Maps the record of given thumbnail. The mapping stays readable after
+	 * its segment has been compacted and deleted.
+	 */
+
+	private ByteBuffer slice(Thumbnail thumbnail) throws IOException {
+		Location location = acquire(thumbnail);
+
+		try {
+			return location.segment.slice(location.dataOffset,
+					location.length);
+		} finally {
+			location.segment.release();
+		}
+	}
+
+	/**
+	 * Looks up the location of given thumbnail and keeps its segment open
+	 * until released
+	 *
+	 * @return location whose segment must be released
+	 */
+
+	private Location acquire(Thumbnail thumbnail) throws IOException {
+		while (true) {
+			Location location = getIndex().get(name(thumbnail.getKey()));
+
+			if (location == null) {
+				throw new FileNotFoundException(
+						"Thumbnail is no longer stored " + thumbnail.getKey());
+			}
+
+			if (location.segment.acquire()) {
+				return location;
+			}
+
+			// Segment was compacted after the lookup, the index already
+			// points to the moved record
+		}
+	}
+
+	/**
+	 * Points given name to given location and keeps the count of live bytes
+	 * of the segments. Must be called while holding the lock of this store.
+	 */
+
+	private static void index(Map<String, Location> locations, String name,
+			Location location) {
+		Location previous = locations.put(name, location);
+
+		if (previous != null) {
+			previous.segment.liveBytes -= previous.recordLength;
+		}
+		location.segment.liveBytes += location.recordLength;
+	}
+
+	/**
+	 * Removes given location of given name and appends a tombstone for it.
+	 * Must be called while holding the lock of this store.
+	 */
+
+	private void remove(Map<String, Location> locations, String name,
+			Location location) {
+		locations.remove(name);
+		location.segment.liveBytes -= location.recordLength;
+
+		try {
+			append(name, 0, 0, -1, -1, null, null);
+		} catch (IOException ignored) {
+			// Record comes back after a restart, which is harmless
+		}
+	}
+
+	/**
+	 * Moves the live records of given segment to the current segment and
+	 * deletes the segment. Must be called while holding the lock of this
+	 * store.
+	 */
+
+	private void rewrite(Map<String, Location> locations, Segment segment)
+			throws IOException {
+		// Tombstones are kept while an older segment may still have a record
+		// they remove, unless the name has been stored again since
+		if (segment != segments.get(0)) {
+			for (String name : tombstones(segment)) {
+				if (!locations.containsKey(name)) {
+					append(name, 0, 0, -1, -1, null, null);
+				}
+			}
+		}
+
+		for (Map.Entry<String, Location> entry : locations.entrySet()) {
+			Location location = entry.getValue();
+
+			if (location.segment != segment) {
+				continue;
+			}
+
+			byte[] data = new byte[location.length];
+			segment.slice(location.dataOffset, location.length).get(data);
+
+			synchronized (location) {
+				Location moved = append(entry.getKey(), location.width,
+						location.height, location.sourceLength,
+						location.sourceModified, data, location.thumbnail);
+				moved.lastAccess = location.lastAccess;
+				index(locations, entry.getKey(), moved);
+			}
+		}
+
+		segments.remove(segment);
+		segment.retire();
+	}
+
+	/**
+	 * @return names removed by the tombstones of given segment
+	 */
+
+	private static List<String> tombstones(Segment segment)
+			throws IOException {
+		final List<String> names = new ArrayList<String>();
+
+		readRecords(segment, (name, width, height, sourceLength,
+				sourceModified, dataOffset, dataLength, recordLength) -> {
+			if (dataLength == TOMBSTONE) {
+				names.add(name);
+			}
+		});
+
+		return names;
+	}
+
+	/**
+	 * Appends a record to the current segment, starting a new segment if
+	 * the record does not fit. Must be called while holding the lock of this
+	 * store.
+	 *
+	 * @return location of the appended data
+	 */
+
+	private Location append(String name, int width, int height,
+			long sourceLength, long sourceModified, byte[] data,
+			Thumbnail thumbnail) throws IOException {
+		byte[] nameBytes = name.getBytes(UTF8);
+		int dataLength = data != null ? data.length : 0;
+
+		ByteBuffer record = ByteBuffer.allocate(4 + 2 + nameBytes.length + 4
+				+ 4 + 8 + 8 + 4 + dataLength);
+		record.putInt(SOURCE_RECORD_MAGIC);
+		record.putShort((short) nameBytes.length);
+		record.put(nameBytes);
+		record.putInt(width);
+		record.putInt(height);
+		record.putLong(sourceLength);
+		record.putLong(sourceModified);
+		record.putInt(data != null ? data.length : TOMBSTONE);
+		if (data != null) {
+			record.put(data);
+		}
+		record.flip();
+
+		Segment segment = currentSegment(record.remaining());
+		long start = segment.size;
+
+		while (record.hasRemaining()) {
+			segment.channel.write(record, segment.size
+					+ record.position());
+		}
+
+		segment.size += record.limit();
+
+		return new Location(segment, start + record.limit() - dataLength,
+				dataLength, record.limit(), width, height, sourceLength,
+				sourceModified, thumbnail);
+	}
+
+	private Segment currentSegment(int recordLength) throws IOException {
+		Segment current = segments.isEmpty() ? null : segments.get(segments
+				.size() - 1);
+
+		if (current == null
+				|| (current.size > 0 && current.size + recordLength > segmentSize)) {
+			if (!directory.isDirectory() && !directory.mkdirs()
+					&& !directory.isDirectory()) {
+				throw new IOException("Unable to create thumbnail directory "
+						+ directory.getAbsolutePath());
+			}
+
+			if (current != null) {
+				current.sealed = true;
+			}
+
+			current = new Segment(new File(directory, String.format(
+					"%s%05d%s", SEGMENT_PREFIX, nextSegment++,
+					SEGMENT_SUFFIX)));
+			segments.add(current);
+		}
+
+		return current;
+	}
+
+	private Map<String, Location> getIndex() {
+		Map<String, Location> result = index;
+
+		if (result == null) {
+			synchronized (this) {
+				result = index;
+
+				if (result == null) {
+					result = scanSegments();
+					index = result;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Reads all records of all segments in the order they were created. A
+	 * truncated record at the end of a segment, left by an interrupted write,
+	 * is cut off.
+	 */
+
+	private Map<String, Location> scanSegments() {
+		Map<String, Location> locations = new ConcurrentHashMap<String, Location>();
+		File[] files = directory.listFiles();
+
+		if (files == null) {
+			return locations;
+		}
+
+		List<File> segmentFiles = new ArrayList<File>();
+		for (File file : files) {
+			if (file.isFile() && segmentNumber(file) >= 0) {
+				segmentFiles.add(file);
+			}
+		}
+		Collections.sort(segmentFiles,
+				Comparator.comparingInt(PackedThumbnailStore::segmentNumber));
+
+		for (File file : segmentFiles) {
+			nextSegment = segmentNumber(file) + 1;
+
+			try {
+				Segment segment = new Segment(file);
+				segments.add(segment);
+				scanSegment(segment, locations);
+			} catch (IOException ignored) {
+				// Unreadable segment is skipped
+			}
+		}
+
+		for (int i = 0; i < segments.size() - 1; i++) {
+			segments.get(i).sealed = true;
+		}
+
+		return locations;
+	}
+
+	private static void scanSegment(final Segment segment,
+			final Map<String, Location> locations) throws IOException {
+		final long scanned = System.currentTimeMillis();
+
+		long end = readRecords(segment, (name, width, height, sourceLength,
+				sourceModified, dataOffset, dataLength, recordLength) -> {
+			if (dataLength == TOMBSTONE) {
+				Location removed = locations.remove(name);
+				if (removed != null) {
+					removed.segment.liveBytes -= removed.recordLength;
+				}
+			} else {
+				// Time of the last access is not stored, so records count as
+				// accessed when the store is opened
+				Location location = new Location(segment, dataOffset,
+						dataLength, recordLength, width, height, sourceLength,
+						sourceModified, null);
+				location.lastAccess = scanned;
+				index(locations, name, location);
+			}
+		});
+
+		if (end < segment.channel.size()) {
+			segment.channel.truncate(end);
+		}
+		segment.size = end;
+	}
+
+	/**
+	 * Passes the complete records of given segment to given handler in the
+	 * order they were written
+	 *
+	 * @return end of the last complete record
+	 */
+
+	private static long readRecords(Segment segment, RecordHandler handler)
+			throws IOException {
+		long length = segment.channel.size();
+		ByteBuffer buffer = length > 0 ? segment.channel.map(
+				FileChannel.MapMode.READ_ONLY, 0, length) : ByteBuffer
+				.allocate(0);
+		int position = 0;
+
+		while (buffer.remaining() >= 4 + 2) {
+			buffer.position(position);
+
+			int magic = buffer.getInt();
+			if (magic != RECORD_MAGIC && magic != SOURCE_RECORD_MAGIC) {
+				break;
+			}
+
+			boolean hasSource = magic == SOURCE_RECORD_MAGIC;
+
+			int nameLength = buffer.getShort();
+			if (nameLength < 0
+					|| buffer.remaining() < nameLength + (hasSource ? 28 : 12)) {
+				break;
+			}
+
+			byte[] nameBytes = new byte[nameLength];
+			buffer.get(nameBytes);
+
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			long sourceLength = hasSource ? buffer.getLong() : -1;
+			long sourceModified = hasSource ? buffer.getLong() : -1;
+			int dataLength = buffer.getInt();
+			String name = new String(nameBytes, UTF8);
+			int dataOffset = buffer.position();
+
+			if (dataLength == TOMBSTONE) {
+				handler.record(name, width, height, sourceLength,
+						sourceModified, dataOffset, TOMBSTONE, dataOffset
+								- position);
+				position = dataOffset;
+				continue;
+			}
+
+			if (dataLength < 0 || buffer.remaining() < dataLength) {
+				break;
+			}
+
+			handler.record(name, width, height, sourceLength,
+					sourceModified, dataOffset, dataLength, dataOffset
+							+ dataLength - position);
+
+			position = dataOffset + dataLength;
+			buffer.position(position);
+		}
+
+		return position;
+	}
+
+	/**
+	 * @return number in the name of given segment file or -1 if file is not
+	 *         a segment
+	 */
+
+	private static int segmentNumber(File file) {
+		String fileName = file.getName();
+
+		if (!fileName.startsWith(SEGMENT_PREFIX)
+				|| !fileName.endsWith(SEGMENT_SUFFIX)) {
+			return -1;
+		}
+
+		try {
+			return Integer.parseInt(fileName.substring(
+					SEGMENT_PREFIX.length(), fileName.length()
+							- SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return name under which thumbnails of given key are stored
+	 */
+
+	static String name(ThumbnailKey key) {
+		return key.getDigest() + "." + key.getFormat();
+	}
+
+	private static class Segment {
+
+		private final File file;
+		private final FileChannel channel;
+
+		/**
+		 * Number of bytes in the segment that belong to complete records
+		 */
+
+		private long size;
+
+		/**
+		 * Number of bytes taken by records that are still in the index
+		 */
+
+		private long liveBytes;
+
+		/**
+		 * True once records are no longer appended to the segment
+		 */
+
+		private volatile boolean sealed;
+
+		private volatile MappedByteBuffer mapped;
+
+		/**
+		 * Number of reads and transfers using the segment
+		 */
+
+		private int readers;
+
+		/**
+		 * True once the records of the segment have been moved by compact,
+		 * the segment is deleted when its last reader is done
+		 */
+
+		private boolean retired;
+
+		private Segment(File file) throws IOException {
+			this.file = file;
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			size = channel.size();
+		}
+
+		/**
+		 * @return true if the segment is kept open until release is called,
+		 *         false if it has been compacted
+		 */
+
+		private synchronized boolean acquire() {
+			if (retired) {
+				return false;
+			}
+
+			readers++;
+			return true;
+		}
+
+		private synchronized void release() {
+			readers--;
+
+			if (retired && readers == 0) {
+				try {
+					delete();
+				} catch (IOException ignored) {
+					// Records of a segment left behind are superseded by
+					// their moved copies when the store is opened again
+				}
+			}
+		}
+
+		/**
+		 * Deletes the segment now or once its last reader is done
+		 *
+		 * @throws IOException
+		 *             if segment is not used and cannot be deleted
+		 */
+
+		private synchronized void retire() throws IOException {
+			retired = true;
+
+			if (readers == 0) {
+				delete();
+			}
+		}
+
+		private void delete() throws IOException {
+			channel.close();
+			mapped = null;
+
+			if (!file.delete()) {
+				throw new IOException("Unable to delete segment "
+						+ file.getAbsolutePath());
+			}
+		}
+
+		/**
+		 * Maps given range of the segment. A sealed segment is mapped as a
+		 * whole once, the segment that is appended to maps each read on its
+		 * own as its size keeps changing.
+		 *
+		 * @return read-only buffer of given range, positioned at zero
+		 */
+
+		private ByteBuffer slice(long offset, int length) throws IOException {
+			if (!sealed) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, offset,
+						length);
+			}
+
+			MappedByteBuffer current = mapped;
+
+			if (current == null) {
+				synchronized (this) {
+					current = mapped;
+
+					if (current == null) {
+						current = channel.map(FileChannel.MapMode.READ_ONLY,
+								0, size);
+						mapped = current;
+					}
+				}
+			}
+
+			ByteBuffer buffer = current.duplicate();
+			buffer.position((int) offset);
+			buffer.limit((int) offset + length);
+
+			return buffer.slice();
+		}
+	}
+
+	private static class Location {
+
+		private final Segment segment;
+		private final long dataOffset;
+		private final int length;
+		private final int recordLength;
+		private final int width;
+		private final int height;
+		private final long sourceLength;
+		private final long sourceModified;
+
+		/**
+		 * Time of the latest lookup of this record in milliseconds
+		 */
+
+		private volatile long lastAccess = System.currentTimeMillis();
+
+		/**
+		 * Thumbnail of this record, null until first looked up if the record
+		 * was read back from a segment
+		 */
+
+		private Thumbnail thumbnail;
+
+		private Location(Segment segment, long dataOffset, int length,
+				int recordLength, int width, int height, long sourceLength,
+				long sourceModified, Thumbnail thumbnail) {
+			this.segment = segment;
+			this.dataOffset = dataOffset;
+			this.length = length;
+			this.recordLength = recordLength;
+			this.width = width;
+			this.height = height;
+			this.sourceLength = sourceLength;
+			this.sourceModified = sourceModified;
+			this.thumbnail = thumbnail;
+		}
+
+		/**
+		 * @return true if given thumbnail was handed out for this record
+		 */
+
+		private synchronized boolean isOf(Thumbnail thumbnail) {
+			return this.thumbnail == thumbnail;
+		}
+	}
+
+	/**
+	 * Stored thumbnail as seen by ThumbnailJanitor
+	 */
+
+	static final class Stored {
+
+		private final String name;
+		private final int length;
+		private final long lastAccess;
+
+		private Stored(String name, int length, long lastAccess) {
+			this.name = name;
+			this.length = length;
+			this.lastAccess = lastAccess;
+		}
+
+		/**
+		 * @return name of the record, see delete
+		 */
+
+		String getName() {
+			return name;
+		}
+
+		/**
+		 * @return size of the record in its segment in bytes
+		 */
+
+		int getLength() {
+			return length;
+		}
+
+		/**
+		 * @return time of the latest lookup in milliseconds
+		 */
+
+		long getLastAccess() {
+			return lastAccess;
+		}
+	}
+
+	private interface RecordHandler {
+
+		/**
+		 * @param sourceLength
+		 *            size of the source file or -1 if not recorded
+		 * @param sourceModified
+		 *            modification time of the source file or -1 if not
+		 *            recorded
+		 * @param dataLength
+		 *            length of the encoded thumbnail or TOMBSTONE
+		 * @param recordLength
+		 *            length of the whole record
+		 */
+
+		void record(String name, int width, int height, long sourceLength,
+				long sourceModified, int dataOffset, int dataLength,
+				int recordLength);
+	}
+
+	/**
+	 * Reads a buffer without copying it
+	 */
+
+	private static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+
+			int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales images down in steps that at most halve the image, each with
+ * bilinear interpolation. A single bilinear step only samples four source
+ * pixels per scaled pixel and aliases on large reductions, halving lets every
+ * source pixel contribute.
+ */
+
+class ProgressiveImageScaler implements ImageScaler {
+
+	private static final long serialVersionUID = 2946250861296468317L;
+
+	@Override
+	public String getName() {
+		return "progressive-bilinear";
+	}
+
+	@Override
+	public BufferedImage scale(BufferedImage source, int width, int height,
+			boolean alpha) {
+		BufferedImage current = source;
+		int currentWidth = source.getWidth();
+		int currentHeight = source.getHeight();
+
+		do {
+			currentWidth = Math.max(width, currentWidth / 2);
+			currentHeight = Math.max(height, currentHeight / 2);
+
+			BufferedImage step = RasterImageScaler.createImage(currentWidth,
+					currentHeight, alpha);
+
+			Graphics2D graphics = step.createGraphics();
+			graphics.setComposite(AlphaComposite.Src);
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.drawImage(current, 0, 0, currentWidth, currentHeight,
+					null);
+			graphics.dispose();
+
+			// Intermediate steps are not needed once drawn to the next one
+			if (current != source) {
+				ScalingPool.get().recycleImage(current);
+			}
+
+			current = step;
+		} while (currentWidth != width || currentHeight != height);
+
+		return current;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -0,0 +1,178 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Base of scalers that work on packed ARGB pixels. Images decoded to packed
+ * int rasters are read directly from their data buffer, other images are
+ * converted a row at a time so that a large source is never copied whole.
+ * Interleaved byte rasters, which ImageIO decodes JPEG images to, are
+ * converted without going through their color model.
+ */
+
+abstract class RasterImageScaler extends BandedImageScaler {
+
+	private static final long serialVersionUID = -1820936165227834519L;
+
+	/**
+	 * @param width
+	 * @param height
+	 * @param alpha
+	 * @return image with packed int pixels, possibly recycled from the
+	 *         ScalingPool so every pixel must be written
+	 */
+
+	static BufferedImage createImage(int width, int height, boolean alpha) {
+		return ScalingPool.get().takeImage(width, height, alpha);
+	}
+
+	/**
+	 * @param image
+	 *            image created with createImage
+	 * @return packed pixels of given image
+	 */
+
+	static int[] pixelsOf(BufferedImage image) {
+		return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+	/**
+	 * Reads rows of an image as packed ARGB pixels. Alpha of images without
+	 * an alpha channel is undefined.
+	 */
+
+	static final class Rows {
+
+		private final BufferedImage image;
+		private final int[] data;
+		private final int stride;
+		private final int[] row;
+
+		private final byte[] bytes;
+		private final ComponentSampleModel byteModel;
+
+		Rows(BufferedImage image) {
+			this.image = image;
+			this.data = packedData(image);
+			this.stride = data != null ? ((SinglePixelPackedSampleModel) image
+					.getSampleModel()).getScanlineStride() : 0;
+			this.row = data != null ? null : new int[image.getWidth()];
+			this.bytes = data != null ? null : interleavedData(image);
+			this.byteModel = bytes != null ? (ComponentSampleModel) image
+					.getSampleModel() : null;
+		}
+
+		/**
+		 * Reads row y of the image
+		 * 
+		 * @param y
+		 * @return offset of the row in the array returned by pixels
+		 */
+
+		int read(int y) {
+			if (data != null) {
+				return y * stride;
+			}
+
+			if (bytes != null) {
+				readBytes(y);
+			} else {
+				image.getRGB(0, y, row.length, 1, row, 0, row.length);
+			}
+			return 0;
+		}
+
+		private void readBytes(int y) {
+			int[] offsets = byteModel.getBandOffsets();
+			int pixelStride = byteModel.getPixelStride();
+			int index = y * byteModel.getScanlineStride();
+
+			int red = offsets[0];
+			int green = offsets[1];
+			int blue = offsets[2];
+
+			if (offsets.length > 3) {
+				int alpha = offsets[3];
+
+				for (int x = 0; x < row.length; x++, index += pixelStride) {
+					row[x] = (bytes[index + alpha] & 0xff) << 24
+							| (bytes[index + red] & 0xff) << 16
+							| (bytes[index + green] & 0xff) << 8
+							| (bytes[index + blue] & 0xff);
+				}
+			} else {
+				for (int x = 0; x < row.length; x++, index += pixelStride) {
+					row[x] = 0xff000000 | (bytes[index + red] & 0xff) << 16
+							| (bytes[index + green] & 0xff) << 8
+							| (bytes[index + blue] & 0xff);
+				}
+			}
+		}
+
+		/**
+		 * @return array that holds the row read last
+		 */
+
+		int[] pixels() {
+			return data != null ? data : row;
+		}
+
+		/**
+		 * @return pixels of given image if they are stored as packed ARGB
+		 *         or RGB ints starting from the beginning of the buffer,
+		 *         otherwise null
+		 */
+
+		private static int[] packedData(BufferedImage image) {
+			int type = image.getType();
+			if (type != BufferedImage.TYPE_INT_RGB
+					&& type != BufferedImage.TYPE_INT_ARGB) {
+				return null;
+			}
+
+			WritableRaster raster = image.getRaster();
+			if (raster.getParent() != null
+					|| raster.getSampleModelTranslateX() != 0
+					|| raster.getSampleModelTranslateY() != 0
+					|| raster.getDataBuffer().getOffset() != 0) {
+				return null;
+			}
+
+			return ((DataBufferInt) raster.getDataBuffer()).getData();
+		}
+
+		/**
+		 * @return bytes of given image if it is stored as interleaved BGR or
+		 *         ABGR bytes starting from the beginning of the buffer,
+		 *         otherwise null
+		 */
+
+		private static byte[] interleavedData(BufferedImage image) {
+			int type = image.getType();
+			if (type != BufferedImage.TYPE_3BYTE_BGR
+					&& type != BufferedImage.TYPE_4BYTE_ABGR) {
+				return null;
+			}
+
+			WritableRaster raster = image.getRaster();
+			if (raster.getParent() != null
+					|| raster.getSampleModelTranslateX() != 0
+					|| raster.getSampleModelTranslateY() != 0
+					|| raster.getDataBuffer().getOffset() != 0) {
+				return null;
+			}
+
+			return ((DataBufferByte) raster.getDataBuffer()).getData();
+		}
+	}
+}
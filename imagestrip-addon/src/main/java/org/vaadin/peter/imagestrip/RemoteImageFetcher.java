@@ -0,0 +1,394 @@
+package org.vaadin.peter.imagestrip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * RemoteImageFetcher downloads source images of ExternalResources. Each
+ * download is bounded by a connect timeout, a read timeout, a timeout for the
+ * whole download and a maximum number of bytes so that a slow or misbehaving
+ * server cannot hold the calling thread indefinitely.
+ *
+ * HTTP responses are always read to the end and closed so that the
+ * underlying connection is returned to the keep-alive cache of the JVM and
+ * reused by the next request to the same host. Validators of an earlier
+ * response can be given to make the request conditional, in which case an
+ * unchanged image is not downloaded again.
+ */
+
+public class RemoteImageFetcher {
+
+	/**
+	 * Default timeout for opening a connection in milliseconds
+	 */
+
+	public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+	/**
+	 * Default timeout for reading from an open connection in milliseconds
+	 */
+
+	public static final int DEFAULT_READ_TIMEOUT = 10000;
+
+	/**
+	 * Default timeout for downloading a whole image in milliseconds
+	 */
+
+	public static final long DEFAULT_DOWNLOAD_TIMEOUT = 60000;
+
+	/**
+	 * Default maximum size of a downloaded image in bytes
+	 */
+
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+	/**
+	 * Default time in milliseconds after which a downloaded image is checked
+	 * for changes
+	 */
+
+	public static final long DEFAULT_REVALIDATION_INTERVAL = 60L * 60 * 1000;
+
+	/**
+	 * Largest maximum size of a downloaded image in bytes, the size of the
+	 * largest byte array
+	 */
+
+	public static final long LARGEST_MAX_BYTES = Integer.MAX_VALUE - 8;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+	private volatile long downloadTimeout = DEFAULT_DOWNLOAD_TIMEOUT;
+	private volatile long maxBytes = DEFAULT_MAX_BYTES;
+	private volatile long revalidationInterval = DEFAULT_REVALIDATION_INTERVAL;
+
+	/**
+	 * Downloads image from given URL. If validators of an earlier response
+	 * are given, the request is made conditional and a response that is not
+	 * modified carries no data.
+	 *
+	 * @param url
+	 * @param eTag
+	 *            ETag of an earlier response or null
+	 * @param lastModified
+	 *            Last-Modified of an earlier response or null
+	 * @return downloaded image or a response that is not modified
+	 * @throws IOException
+	 *             if the server cannot be reached, does not respond in time,
+	 *             responds with an error or the image is too large
+	 */
+
+	public Response fetch(String url, String eTag, String lastModified)
+			throws IOException {
+		long deadline = System.currentTimeMillis() + downloadTimeout;
+		URLConnection connection = new URL(url).openConnection();
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+
+		if (!(connection instanceof HttpURLConnection)) {
+			// file: and jar: URLs have no validators
+			return new Response(read(connection, url, deadline), null, null);
+		}
+
+		HttpURLConnection http = (HttpURLConnection) connection;
+
+		if (eTag != null) {
+			http.setRequestProperty("If-None-Match", eTag);
+		}
+		if (lastModified != null) {
+			http.setRequestProperty("If-Modified-Since", lastModified);
+		}
+
+		int status = http.getResponseCode();
+
+		if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			drain(http, http.getInputStream(), deadline);
+			return new Response(null, eTag, lastModified);
+		}
+
+		if (status != HttpURLConnection.HTTP_OK) {
+			drain(http, http.getErrorStream(), deadline);
+			throw new IOException("Unexpected response " + status + " from "
+					+ url);
+		}
+
+		byte[] data = read(http, url, deadline);
+
+		return new Response(data, http.getHeaderField("ETag"),
+				http.getHeaderField("Last-Modified"));
+	}
+
+	/**
+	 * Reads the body of given connection, refusing bodies larger than
+	 * maximum number of bytes and giving up once the deadline has passed.
+	 * Each read is bounded by the read timeout, so a server that sends a
+	 * byte now and then is stopped at most a read timeout after the
+	 * deadline.
+	 */
+
+	private byte[] read(URLConnection connection, String url, long deadline)
+			throws IOException {
+		long limit = maxBytes;
+		long length = connection.getContentLengthLong();
+
+		if (length > limit) {
+			disconnect(connection);
+			throw new IOException("Image at " + url + " is larger than "
+					+ limit + " bytes");
+		}
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream(
+				length > 0 ? (int) length : BUFFER_SIZE);
+		InputStream input = connection.getInputStream();
+
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+
+			while ((read = input.read(buffer)) != -1) {
+				if (output.size() + read > limit) {
+					// Draining the rest would defeat the limit
+					disconnect(connection);
+					throw new IOException("Image at " + url
+							+ " is larger than " + limit + " bytes");
+				}
+
+				output.write(buffer, 0, read);
+
+				if (System.currentTimeMillis() > deadline) {
+					disconnect(connection);
+					throw new IOException("Downloading image at " + url
+							+ " took longer than " + downloadTimeout + " ms");
+				}
+			}
+		} finally {
+			input.close();
+		}
+
+		return output.toByteArray();
+	}
+
+	/**
+	 * Reads given stream to the end and closes it, which allows the
+	 * connection to be reused. A body larger than maximum number of bytes or
+	 * one that is still being read at the deadline is not worth keeping the
+	 * connection for, so the connection is closed instead.
+	 */
+
+	private void drain(HttpURLConnection connection, InputStream input,
+			long deadline) throws IOException {
+		if (input == null) {
+			return;
+		}
+
+		long limit = maxBytes;
+
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long drained = 0;
+			int read;
+
+			while ((read = input.read(buffer)) != -1) {
+				drained += read;
+
+				if (drained > limit || System.currentTimeMillis() > deadline) {
+					connection.disconnect();
+					return;
+				}
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	private static void disconnect(URLConnection connection) {
+		if (connection instanceof HttpURLConnection) {
+			((HttpURLConnection) connection).disconnect();
+		}
+	}
+
+	/**
+	 * @return timeout for opening a connection in milliseconds
+	 */
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Sets the timeout for opening a connection
+	 *
+	 * @param connectTimeout
+	 *            timeout in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if connectTimeout is not positive
+	 */
+
+	public void setConnectTimeout(int connectTimeout) {
+		if (connectTimeout <= 0) {
+			throw new IllegalArgumentException(
+					"Connect timeout must be positive");
+		}
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * @return timeout for reading from an open connection in milliseconds
+	 */
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Sets the timeout for reading from an open connection
+	 *
+	 * @param readTimeout
+	 *            timeout in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if readTimeout is not positive
+	 */
+
+	public void setReadTimeout(int readTimeout) {
+		if (readTimeout <= 0) {
+			throw new IllegalArgumentException("Read timeout must be positive");
+		}
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * @return timeout for downloading a whole image in milliseconds
+	 */
+
+	public long getDownloadTimeout() {
+		return downloadTimeout;
+	}
+
+	/**
+	 * Sets the timeout for downloading a whole image, counted from the start
+	 * of the request
+	 *
+	 * @param downloadTimeout
+	 *            timeout in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if downloadTimeout is not positive
+	 */
+
+	public void setDownloadTimeout(long downloadTimeout) {
+		if (downloadTimeout <= 0) {
+			throw new IllegalArgumentException(
+					"Download timeout must be positive");
+		}
+		this.downloadTimeout = downloadTimeout;
+	}
+
+	/**
+	 * @return maximum size of a downloaded image in bytes
+	 */
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Sets the maximum size of a downloaded image
+	 *
+	 * @param maxBytes
+	 * @throws IllegalArgumentException
+	 *             if maxBytes is not positive or larger than
+	 *             LARGEST_MAX_BYTES
+	 */
+
+	public void setMaxBytes(long maxBytes) {
+		if (maxBytes <= 0 || maxBytes > LARGEST_MAX_BYTES) {
+			throw new IllegalArgumentException("Maximum size of an image"
+					+ " must be positive and less than 2GB");
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return time in milliseconds after which a downloaded image is checked
+	 *         for changes
+	 */
+
+	public long getRevalidationInterval() {
+		return revalidationInterval;
+	}
+
+	/**
+	 * Sets the time after which a downloaded image is checked for changes
+	 * with a conditional request. Zero checks the image on every use.
+	 *
+	 * @param revalidationInterval
+	 *            interval in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if revalidationInterval is negative
+	 */
+
+	public void setRevalidationInterval(long revalidationInterval) {
+		if (revalidationInterval < 0) {
+			throw new IllegalArgumentException(
+					"Revalidation interval must not be negative");
+		}
+		this.revalidationInterval = revalidationInterval;
+	}
+
+	/**
+	 * Response of a fetch, either the downloaded image or a notice that the
+	 * image has not been modified
+	 */
+
+	public static final class Response {
+
+		private final byte[] data;
+		private final String eTag;
+		private final String lastModified;
+
+		private Response(byte[] data, String eTag, String lastModified) {
+			this.data = data;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * @return true if the image has not changed since the validators
+		 *         given to the request
+		 */
+
+		public boolean isNotModified() {
+			return data == null;
+		}
+
+		/**
+		 * @return downloaded image or null if the image was not modified
+		 */
+
+		public byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * @return ETag of the image or null if server did not send one
+		 */
+
+		public String getETag() {
+			return eTag;
+		}
+
+		/**
+		 * @return Last-Modified of the image or null if server did not send
+		 *         one
+		 */
+
+		public String getLastModified() {
+			return lastModified;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * ScalingPool recycles the objects that every resize would otherwise create
+ * and throw away: image readers and writers, which are looked up from the
+ * service registry of ImageIO, and the rasters of scaled images.
+ *
+ * Readers and writers are reset when they are returned and disposed when
+ * the pool of their format is full. Rasters are only recycled if they were
+ * created by the pool and are small enough, so common box sizes are reused
+ * while the pool never holds on to large images.
+ */
+
+final class ScalingPool {
+
+	/**
+	 * Maximum number of idle readers and writers kept per format
+	 */
+
+	private static final int MAX_IDLE_CODECS = 8;
+
+	/**
+	 * Maximum number of pixels of idle rasters kept in the pool
+	 */
+
+	private static final long MAX_POOLED_PIXELS = 4L * 1024 * 1024;
+
+	private static final ScalingPool shared = new ScalingPool();
+
+	private final Map<ImageReaderSpi, Deque<ImageReader>> readers = new LinkedHashMap<ImageReaderSpi, Deque<ImageReader>>();
+	private final Map<String, Deque<ImageWriter>> writers = new HashMap<String, Deque<ImageWriter>>();
+
+	private final Deque<BufferedImage> images = new ArrayDeque<BufferedImage>();
+	private final Set<BufferedImage> created = Collections
+			.newSetFromMap(new WeakHashMap<BufferedImage, Boolean>());
+	private long pooledPixels;
+
+	/**
+	 * @return pool shared by all resizes
+	 */
+
+	static ScalingPool get() {
+		return shared;
+	}
+
+	/**
+	 * Finds a reader for given input. Formats that have been read before are
+	 * recognized by asking their providers directly instead of going through
+	 * the service registry.
+	 *
+	 * @param input
+	 * @return reader that must be returned with releaseReader, or null if
+	 *         format of the input is not supported
+	 * @throws IOException
+	 */
+
+	ImageReader takeReader(ImageInputStream input) throws IOException {
+		List<ImageReaderSpi> providers;
+		synchronized (this) {
+			providers = new ArrayList<ImageReaderSpi>(readers.keySet());
+		}
+
+		for (ImageReaderSpi provider : providers) {
+			if (canDecode(provider, input)) {
+				synchronized (this) {
+					ImageReader reader = readers.get(provider).pollFirst();
+					if (reader != null) {
+						return reader;
+					}
+				}
+
+				return provider.createReaderInstance();
+			}
+		}
+
+		Iterator<ImageReader> found = ImageIO.getImageReaders(input);
+
+		if (!found.hasNext()) {
+			return null;
+		}
+
+		ImageReader reader = found.next();
+
+		if (reader.getOriginatingProvider() != null) {
+			synchronized (this) {
+				readers.computeIfAbsent(reader.getOriginatingProvider(),
+						provider -> new ArrayDeque<ImageReader>());
+			}
+		}
+
+		return reader;
+	}
+
+	/**
+	 * @return true if given provider recognizes the input, false also if
+	 *         input is too short for it like ImageIO does
+	 */
+
+	private static boolean canDecode(ImageReaderSpi provider,
+			ImageInputStream input) {
+		try {
+			return provider.canDecodeInput(input);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Resets given reader and keeps it for the next read of its format
+	 *
+	 * @param reader
+	 */
+
+	void releaseReader(ImageReader reader) {
+		reader.reset();
+
+		synchronized (this) {
+			Deque<ImageReader> idle = readers.get(reader
+					.getOriginatingProvider());
+
+			if (idle != null && idle.size() < MAX_IDLE_CODECS) {
+				idle.addFirst(reader);
+				return;
+			}
+		}
+
+		reader.dispose();
+	}
+
+	/**
+	 * @param format
+	 *            informal name of the format
+	 * @return writer that must be returned with releaseWriter, or null if
+	 *         given format is not supported
+	 */
+
+	ImageWriter takeWriter(String format) {
+		synchronized (this) {
+			Deque<ImageWriter> idle = writers.get(format);
+
+			if (idle != null && !idle.isEmpty()) {
+				return idle.pollFirst();
+			}
+		}
+
+		Iterator<ImageWriter> found = ImageIO
+				.getImageWritersByFormatName(format);
+
+		return found.hasNext() ? found.next() : null;
+	}
+
+	/**
+	 * Resets given writer and keeps it for the next write of given format
+	 *
+	 * @param format
+	 * @param writer
+	 */
+
+	void releaseWriter(String format, ImageWriter writer) {
+		writer.reset();
+
+		synchronized (this) {
+			Deque<ImageWriter> idle = writers.computeIfAbsent(format,
+					name -> new ArrayDeque<ImageWriter>());
+
+			if (idle.size() < MAX_IDLE_CODECS) {
+				idle.addFirst(writer);
+				return;
+			}
+		}
+
+		writer.dispose();
+	}
+
+	/**
+	 * Returns an image with packed int pixels, recycled if an image of the
+	 * same size and type has been released. Contents of a recycled image are
+	 * undefined, so callers must overwrite every pixel.
+	 *
+	 * @param width
+	 * @param height
+	 * @param alpha
+	 * @return image that can be returned with recycleImage
+	 */
+
+	BufferedImage takeImage(int width, int height, boolean alpha) {
+		int type = alpha ? BufferedImage.TYPE_INT_ARGB
+				: BufferedImage.TYPE_INT_RGB;
+
+		synchronized (this) {
+			for (Iterator<BufferedImage> i = images.iterator(); i.hasNext();) {
+				BufferedImage image = i.next();
+
+				if (image.getWidth() == width && image.getHeight() == height
+						&& image.getType() == type) {
+					i.remove();
+					pooledPixels -= (long) width * height;
+					return image;
+				}
+			}
+		}
+
+		BufferedImage image = new BufferedImage(width, height, type);
+
+		if ((long) width * height <= MAX_POOLED_PIXELS) {
+			synchronized (this) {
+				created.add(image);
+			}
+		}
+
+		return image;
+	}
+
+	/**
+	 * Keeps given image for later takeImage calls. Images that were not
+	 * created by this pool or that are too large are left to the garbage
+	 * collector. Caller must not use the image after recycling it.
+	 *
+	 * @param image
+	 */
+
+	synchronized void recycleImage(BufferedImage image) {
+		if (!created.contains(image) || images.contains(image)) {
+			return;
+		}
+
+		images.addFirst(image);
+		pooledPixels += (long) image.getWidth() * image.getHeight();
+
+		while (pooledPixels > MAX_POOLED_PIXELS) {
+			BufferedImage eldest = images.removeLast();
+			pooledPixels -= (long) eldest.getWidth() * eldest.getHeight();
+		}
+	}
+
+	/**
+	 * @return number of idle images in the pool
+	 */
+
+	synchronized int getPooledImages() {
+		return images.size();
+	}
+}
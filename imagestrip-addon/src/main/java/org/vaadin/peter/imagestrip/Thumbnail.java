@@ -0,0 +1,200 @@
+package org.vaadin.peter.imagestrip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Thumbnail is the result of scaling an image with ImageTools. It carries the
+ * dimensions and size of the scaled image together with its location, so
+ * callers do not need to read the image again to find them out.
+ */
+
+public final class Thumbnail {
+
+	private final ThumbnailStore store;
+	private final ThumbnailKey key;
+	private final File file;
+
+	private final int width;
+	private final int height;
+	private final long byteSize;
+
+	private final long sourceLength;
+	private final long sourceModified;
+
+	private volatile String placeholderColor;
+
+	private volatile int sourceWidth;
+	private volatile int sourceHeight;
+
+	/**
+	 * @param store
+	 *            store that holds the encoded thumbnail
+	 * @param key
+	 * @param file
+	 *            file containing the encoded thumbnail or null if the store
+	 *            does not keep thumbnails in separate files
+	 * @param width
+	 * @param height
+	 * @param byteSize
+	 */
+
+	public Thumbnail(ThumbnailStore store, ThumbnailKey key, File file,
+			int width, int height, long byteSize) {
+		this(store, key, file, width, height, byteSize, -1, -1);
+	}
+
+	/**
+	 * @param store
+	 *            store that holds the encoded thumbnail
+	 * @param key
+	 * @param file
+	 *            file containing the encoded thumbnail or null if the store
+	 *            does not keep thumbnails in separate files
+	 * @param width
+	 * @param height
+	 * @param byteSize
+	 * @param sourceLength
+	 *            size of the source file in bytes when it was scaled, or -1
+	 *            if not known
+	 * @param sourceModified
+	 *            modification time of the source file in milliseconds when
+	 *            it was scaled, or -1 if not known
+	 */
+
+	public Thumbnail(ThumbnailStore store, ThumbnailKey key, File file,
+			int width, int height, long byteSize, long sourceLength,
+			long sourceModified) {
+		this.store = store;
+		this.key = key;
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.byteSize = byteSize;
+		this.sourceLength = sourceLength;
+		this.sourceModified = sourceModified;
+	}
+
+	/**
+	 * @return store that holds the encoded thumbnail
+	 */
+
+	public ThumbnailStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return key this thumbnail was scaled for
+	 */
+
+	public ThumbnailKey getKey() {
+		return key;
+	}
+
+	/**
+	 * @return file containing the encoded thumbnail or null if the thumbnail
+	 *         is not stored in a separate file
+	 */
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return width of the thumbnail in pixels
+	 */
+
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return height of the thumbnail in pixels
+	 */
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return size of the encoded thumbnail in bytes
+	 */
+
+	public long getByteSize() {
+		return byteSize;
+	}
+
+	/**
+	 * @return average color of the thumbnail as a CSS color, such as
+	 *         "#a0b1c2", or null if it has not been calculated
+	 * @see ImageTools#getPlaceholderColor(Thumbnail)
+	 */
+
+	public String getPlaceholderColor() {
+		return placeholderColor;
+	}
+
+	void setPlaceholderColor(String placeholderColor) {
+		this.placeholderColor = placeholderColor;
+	}
+
+	/**
+	 * @return width of the source image in pixels or 0 if it is not known,
+	 *         which is the case for thumbnails read back from a store
+	 */
+
+	public int getSourceWidth() {
+		return sourceWidth;
+	}
+
+	/**
+	 * @return height of the source image in pixels or 0 if it is not known
+	 */
+
+	public int getSourceHeight() {
+		return sourceHeight;
+	}
+
+	void setSourceSize(int sourceWidth, int sourceHeight) {
+		this.sourceWidth = sourceWidth;
+		this.sourceHeight = sourceHeight;
+	}
+
+	/**
+	 * @return size of the source file in bytes when it was scaled, or -1 if
+	 *         the source is not a file or its store does not keep it
+	 */
+
+	public long getSourceLength() {
+		return sourceLength;
+	}
+
+	/**
+	 * @return modification time of the source file in milliseconds when it
+	 *         was scaled, or -1 if the source is not a file or its store
+	 *         does not keep it
+	 */
+
+	public long getSourceModified() {
+		return sourceModified;
+	}
+
+	/**
+	 * @return true if the encoded thumbnail can still be read from its store
+	 */
+
+	public boolean exists() {
+		return store.contains(this);
+	}
+
+	/**
+	 * @return stream of the encoded thumbnail
+	 * @throws IOException
+	 *             if thumbnail is no longer stored or cannot be read
+	 */
+
+	public InputStream openStream() throws IOException {
+		return store.openStream(this);
+	}
+}
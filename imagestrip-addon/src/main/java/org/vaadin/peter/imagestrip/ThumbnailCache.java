@@ -0,0 +1,263 @@
+package org.vaadin.peter.imagestrip;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * ThumbnailCache keeps track of scaled images written by ImageTools. Cache is
+ * bounded both by the number of entries and by the total size of the scaled
+ * images. When either limit is exceeded the least recently used entries are
+ * evicted. Evicted entries are removed from their ThumbnailStore unless it is
+ * persistent, so that thumbnails on disk can still be found after they have
+ * dropped out of the cache.
+ *
+ * All methods are thread safe.
+ */
+
+public class ThumbnailCache {
+
+	/**
+	 * Default maximum number of cached thumbnails
+	 */
+
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	/**
+	 * Default maximum total size of cached thumbnails in bytes
+	 */
+
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	/**
+	 * Entries in access order, least recently used first
+	 */
+
+	private final LinkedHashMap<ThumbnailKey, Thumbnail> entries;
+
+	private int maxEntries;
+	private long maxBytes;
+
+	/**
+	 * Sum of the encoded sizes of all cached entries
+	 */
+
+	private long totalBytes;
+
+	private final List<ThumbnailListener> listeners = new CopyOnWriteArrayList<ThumbnailListener>();
+
+	/**
+	 * Creates a cache with default limits
+	 */
+
+	public ThumbnailCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Creates a cache with given limits
+	 *
+	 * @param maxEntries
+	 * @param maxBytes
+	 */
+
+	public ThumbnailCache(int maxEntries, long maxBytes) {
+		entries = new LinkedHashMap<ThumbnailKey, Thumbnail>(16, 0.75f, true);
+
+		setMaxEntries(maxEntries);
+		setMaxBytes(maxBytes);
+	}
+
+	/**
+	 * @param key
+	 * @return cached thumbnail for given key or null if there is no such
+	 *         entry or if it has been removed from its store
+	 */
+
+	public synchronized Thumbnail get(ThumbnailKey key) {
+		Thumbnail thumbnail = entries.get(key);
+
+		if (thumbnail == null) {
+			return null;
+		}
+
+		if (!thumbnail.exists()) {
+			entries.remove(key);
+			totalBytes -= thumbnail.getByteSize();
+			return null;
+		}
+
+		return thumbnail;
+	}
+
+	/**
+	 * Adds given thumbnail to the cache. Least recently used entries are
+	 * evicted if the cache grows over its limits.
+	 *
+	 * @param thumbnail
+	 */
+
+	public synchronized void put(Thumbnail thumbnail) {
+		Thumbnail previous = entries.put(thumbnail.getKey(), thumbnail);
+
+		if (previous != null) {
+			totalBytes -= previous.getByteSize();
+
+			// Same key is stored in the same place, only another store needs
+			// to be cleaned up
+			if (previous.getStore() != thumbnail.getStore()) {
+				previous.getStore().remove(previous);
+			}
+		}
+
+		totalBytes += thumbnail.getByteSize();
+		evict();
+	}
+
+	/**
+	 * Adds a listener that is notified when entries are evicted
+	 *
+	 * @param listener
+	 */
+
+	public void addListener(ThumbnailListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(ThumbnailListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Removes the entry of given key from the cache. Stored thumbnail is left
+	 * intact.
+	 *
+	 * @param key
+	 * @return removed thumbnail or null if key was not cached
+	 */
+
+	synchronized Thumbnail remove(ThumbnailKey key) {
+		Thumbnail removed = entries.remove(key);
+
+		if (removed != null) {
+			totalBytes -= removed.getByteSize();
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Removes all entries from the cache. Stored thumbnails are left intact.
+	 */
+
+	public synchronized void clear() {
+		entries.clear();
+		totalBytes = 0;
+	}
+
+	/**
+	 * @return number of entries currently in the cache
+	 */
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return copy of the cached thumbnails, least recently used first
+	 */
+
+	synchronized List<Thumbnail> getThumbnails() {
+		return new ArrayList<Thumbnail>(entries.values());
+	}
+
+	/**
+	 * @return total size of the cached thumbnails in bytes
+	 */
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return maximum number of entries kept in the cache
+	 */
+
+	public synchronized int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Sets the maximum number of entries kept in the cache
+	 *
+	 * @param maxEntries
+	 * @throws IllegalArgumentException
+	 *             if maxEntries is not positive
+	 */
+
+	public synchronized void setMaxEntries(int maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException(
+					"Maximum number of entries must be positive");
+		}
+		this.maxEntries = maxEntries;
+		evict();
+	}
+
+	/**
+	 * @return maximum total size of the cached thumbnails in bytes
+	 */
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Sets the maximum total size of the cached thumbnails in bytes
+	 *
+	 * @param maxBytes
+	 * @throws IllegalArgumentException
+	 *             if maxBytes is not positive
+	 */
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException(
+					"Maximum size of the cache must be positive");
+		}
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	/**
+	 * Evicts least recently used entries until cache is within its limits
+	 */
+
+	private void evict() {
+		Iterator<Map.Entry<ThumbnailKey, Thumbnail>> iterator = entries
+				.entrySet().iterator();
+
+		while (iterator.hasNext()
+				&& (entries.size() > maxEntries || totalBytes > maxBytes)) {
+			Thumbnail eldest = iterator.next().getValue();
+			iterator.remove();
+
+			totalBytes -= eldest.getByteSize();
+
+			if (!eldest.getStore().isPersistent()) {
+				eldest.getStore().remove(eldest);
+			}
+
+			for (ThumbnailListener listener : listeners) {
+				try {
+					listener.evicted(eldest);
+				} catch (RuntimeException ignored) {
+					// Listeners must not break the cache
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package org.vaadin.peter.imagestrip;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ThumbnailInvalidator watches directories of source images and drops the
+ * scaled images of files that are modified, replaced or deleted. ImageTools
+ * notices changed files on lookup by their size and modification time, so an
+ * invalidator is not needed for correctness. It frees the cache and the store
+ * of stale thumbnails right away and covers changes that keep both size and
+ * modification time, such as a copy that preserves timestamps.
+ *
+ * Directories are watched without their subdirectories. Watching is done in
+ * a background thread that is started with start.
+ */
+
+public class ThumbnailInvalidator {
+
+	private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+
+	private WatchService watchService;
+	private Thread thread;
+
+	private volatile int invalidated;
+
+	/**
+	 * Starts watching given directory. Directories can be added whether or
+	 * not the invalidator is running.
+	 *
+	 * @param directory
+	 * @throws IllegalArgumentException
+	 *             if directory does not exist
+	 * @throws IOException
+	 *             if directory cannot be watched
+	 */
+
+	public synchronized void addDirectory(File directory) throws IOException {
+		if (directory == null || !directory.isDirectory()) {
+			throw new IllegalArgumentException("Directory " + directory
+					+ " does not exist");
+		}
+
+		Path path = directory.getAbsoluteFile().toPath();
+
+		WatchKey key = path.register(getWatchService(),
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+
+		directories.put(key, path);
+	}
+
+	/**
+	 * Starts watching the added directories in a background thread
+	 *
+	 * @throws IllegalStateException
+	 *             if invalidator has already been started
+	 * @throws IOException
+	 *             if watch service cannot be created
+	 */
+
+	public synchronized void start() throws IOException {
+		if (thread != null) {
+			throw new IllegalStateException("Invalidator is already running");
+		}
+
+		WatchService service = getWatchService();
+
+		thread = new Thread(() -> watch(service), "imagestrip-invalidator");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops watching. Added directories are forgotten, so they need to be
+	 * added again before the invalidator is restarted.
+	 */
+
+	public synchronized void stop() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException ignored) {
+				// Closing only wakes up the watching thread
+			}
+			watchService = null;
+		}
+
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+
+		directories.clear();
+	}
+
+	/**
+	 * @return true if invalidator watches its directories
+	 */
+
+	public synchronized boolean isRunning() {
+		return thread != null;
+	}
+
+	/**
+	 * @return number of scaled images dropped since the invalidator was
+	 *         created
+	 */
+
+	public int getInvalidated() {
+		return invalidated;
+	}
+
+	private WatchService getWatchService() throws IOException {
+		if (watchService == null) {
+			watchService = FileSystems.getDefault().newWatchService();
+		}
+
+		return watchService;
+	}
+
+	private void watch(WatchService service) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey key = service.take();
+
+				try {
+					invalidate(key);
+				} catch (RuntimeException ignored) {
+					// Lookups notice the change instead
+				}
+
+				if (!key.reset()) {
+					synchronized (this) {
+						directories.remove(key);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// Invalidator was stopped
+		}
+	}
+
+	private void invalidate(WatchKey key) {
+		Path directory;
+
+		synchronized (this) {
+			directory = directories.get(key);
+		}
+
+		if (directory == null) {
+			key.pollEvents();
+			return;
+		}
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				invalidateDirectory(directory);
+				continue;
+			}
+
+			Path changed = directory.resolve((Path) event.context());
+			invalidated += ImageTools.invalidate(changed.toFile());
+		}
+	}
+
+	/**
+	 * Drops the scaled images of every file of given directory, used when
+	 * the events of the directory have been lost
+	 */
+
+	private void invalidateDirectory(Path directory) {
+		String prefix = directory.toString() + File.separator;
+
+		for (Thumbnail thumbnail : ImageTools.getCache().getThumbnails()) {
+			String source = thumbnail.getKey().getSource();
+
+			if (source.startsWith(prefix)
+					&& source.indexOf(File.separatorChar, prefix.length()) < 0) {
+				invalidated += ImageTools.invalidate(new File(source));
+			}
+		}
+	}
+}
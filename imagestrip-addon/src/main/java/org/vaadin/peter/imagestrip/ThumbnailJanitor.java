@@ -0,0 +1,455 @@
+package org.vaadin.peter.imagestrip;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ThumbnailJanitor keeps the directory of a DirectoryThumbnailStore or a
+ * PackedThumbnailStore within a disk quota. Stored thumbnails outlive the
+ * ThumbnailCache that refers to them, both over restarts and for sources that
+ * are not shown anymore, so without a janitor the directory only grows.
+ *
+ * A sweep deletes partial files left by interrupted writes, thumbnails that
+ * have not been looked up for longer than the maximum age and are not in the
+ * cache of ImageTools, and finally the least recently used thumbnails until
+ * the store fits to its quota. Thumbnails in the
+ * cache are deleted for the quota only when deleting every other thumbnail is
+ * not enough. A packed store is compacted after the sweep so that the space
+ * of deleted thumbnails is given back. Only files named like the thumbnails
+ * and partial files of the store are counted and deleted, other files in
+ * the directory are left alone.
+ *
+ * Sweeps can be run by hand with sweep or periodically in a background
+ * thread with start. Periodic sweeps start after the first period, so that
+ * thumbnails used right after a restart are looked up before they are
+ * judged.
+ */
+
+public class ThumbnailJanitor {
+
+	/**
+	 * Default quota of the store directory in bytes
+	 */
+
+	public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+	/**
+	 * Default age in milliseconds after which unused thumbnails are deleted
+	 */
+
+	public static final long DEFAULT_MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+
+	/**
+	 * Age in milliseconds after which a partial file is known to be left by
+	 * an interrupted write
+	 */
+
+	private static final long PARTIAL_MAX_AGE = 60L * 60 * 1000;
+
+	private final ThumbnailStore store;
+
+	private volatile long maxBytes = DEFAULT_MAX_BYTES;
+	private volatile long maxAge = DEFAULT_MAX_AGE;
+
+	private volatile Usage usage;
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Creates a janitor for given store with default quota and maximum age
+	 *
+	 * @param store
+	 */
+
+	public ThumbnailJanitor(DirectoryThumbnailStore store) {
+		this((ThumbnailStore) store);
+	}
+
+	/**
+	 * Creates a janitor for given packed store with default quota and
+	 * maximum age. Quota counts the stored thumbnails, the segment files are
+	 * larger by the removed thumbnails that have not been compacted yet.
+	 *
+	 * @param store
+	 */
+
+	public ThumbnailJanitor(PackedThumbnailStore store) {
+		this((ThumbnailStore) store);
+	}
+
+	private ThumbnailJanitor(ThumbnailStore store) {
+		if (store == null) {
+			throw new IllegalArgumentException("Store must be given");
+		}
+
+		this.store = store;
+	}
+
+	/**
+	 * Starts sweeping the store periodically in a background thread. First
+	 * sweep is run after one period.
+	 *
+	 * @param period
+	 * @param unit
+	 * @throws IllegalStateException
+	 *             if janitor has already been started
+	 */
+
+	public synchronized void start(long period, TimeUnit unit) {
+		if (scheduler != null) {
+			throw new IllegalStateException("Janitor is already running");
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "imagestrip-janitor");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				sweep();
+			} catch (RuntimeException ignored) {
+				// Next sweep tries again, an exception would cancel it
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stops periodic sweeping. A sweep that is running is interrupted.
+	 */
+
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * @return true if janitor sweeps the store periodically
+	 */
+
+	public synchronized boolean isRunning() {
+		return scheduler != null;
+	}
+
+	/**
+	 * Sweeps the store once
+	 *
+	 * @return usage of the store after the sweep
+	 */
+
+	public Usage sweep() {
+		long now = System.currentTimeMillis();
+		List<Entry> entries = store instanceof PackedThumbnailStore
+				? listRecords((PackedThumbnailStore) store)
+				: listFiles((DirectoryThumbnailStore) store);
+
+		int fileCount = 0;
+		int deletedFiles = 0;
+		long deletedBytes = 0;
+		long totalBytes = 0;
+
+		List<Entry> unreferenced = new ArrayList<Entry>();
+		List<Entry> inUse = new ArrayList<Entry>();
+
+		for (Entry entry : entries) {
+			long age = now - entry.lastUsed;
+
+			if ((entry.partial && age > PARTIAL_MAX_AGE)
+					|| (!entry.partial && age > maxAge && !entry.referenced)) {
+				if (entry.delete()) {
+					deletedFiles++;
+					deletedBytes += entry.length;
+					continue;
+				}
+			}
+
+			fileCount++;
+			totalBytes += entry.length;
+
+			if (!entry.partial) {
+				(entry.referenced ? inUse : unreferenced).add(entry);
+			}
+		}
+
+		Comparator<Entry> oldestFirst = Comparator
+				.comparingLong(entry -> entry.lastUsed);
+		unreferenced.sort(oldestFirst);
+		inUse.sort(oldestFirst);
+
+		List<Entry> candidates = new ArrayList<Entry>(unreferenced);
+		candidates.addAll(inUse);
+
+		for (Entry entry : candidates) {
+			if (totalBytes <= maxBytes) {
+				break;
+			}
+
+			if (entry.delete()) {
+				deletedFiles++;
+				deletedBytes += entry.length;
+				fileCount--;
+				totalBytes -= entry.length;
+			}
+		}
+
+		if (store instanceof PackedThumbnailStore) {
+			try {
+				((PackedThumbnailStore) store).compact();
+			} catch (IOException ignored) {
+				// Next sweep tries again
+			}
+		}
+
+		Usage result = new Usage(fileCount, totalBytes,
+				deletedFiles, deletedBytes);
+		usage = result;
+
+		return result;
+	}
+
+	/**
+	 * @return usage reported by the latest sweep or null if store has not
+	 *         been swept yet
+	 */
+
+	public Usage getUsage() {
+		return usage;
+	}
+
+	/**
+	 * @return DirectoryThumbnailStore or PackedThumbnailStore swept by this
+	 *         janitor
+	 */
+
+	public ThumbnailStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return quota of the store directory in bytes
+	 */
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Sets the quota of the store directory
+	 *
+	 * @param maxBytes
+	 * @throws IllegalArgumentException
+	 *             if maxBytes is not positive
+	 */
+
+	public void setMaxBytes(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("Quota must be positive");
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return time in milliseconds since the last lookup after which unused
+	 *         thumbnails are deleted
+	 */
+
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	/**
+	 * Sets the time since their last lookup after which thumbnails that are
+	 * not in the cache of ImageTools are deleted
+	 *
+	 * @param maxAge
+	 *            age in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if maxAge is negative
+	 */
+
+	public void setMaxAge(long maxAge) {
+		if (maxAge < 0) {
+			throw new IllegalArgumentException(
+					"Maximum age must not be negative");
+		}
+		this.maxAge = maxAge;
+	}
+
+	private List<Entry> listFiles(final DirectoryThumbnailStore directoryStore) {
+		File[] listed = directoryStore.getDirectory().listFiles();
+		List<Entry> entries = new ArrayList<Entry>();
+
+		if (listed == null) {
+			return entries;
+		}
+
+		Set<File> referenced = new HashSet<File>();
+		for (Thumbnail thumbnail : ImageTools.getCache().getThumbnails()) {
+			if (thumbnail.getStore() == store && thumbnail.getFile() != null) {
+				referenced.add(thumbnail.getFile());
+			}
+		}
+
+		for (final File file : listed) {
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(file.toPath(),
+						BasicFileAttributes.class);
+			} catch (IOException e) {
+				continue;
+			}
+
+			if (!attributes.isRegularFile()) {
+				continue;
+			}
+
+			// Files the store did not write are not the janitor's to judge,
+			// the directory may be shared
+			String name = file.getName();
+			boolean partial = DirectoryThumbnailStore.isPartialName(name);
+			if (!partial && !DirectoryThumbnailStore.isStoredName(name)) {
+				continue;
+			}
+			long written = attributes.lastModifiedTime().toMillis();
+
+			// Partial files are judged by the time they were written to,
+			// thumbnails by the time they were last looked up
+			long lastUsed = partial ? written : Math.max(written, attributes
+					.lastAccessTime().toMillis());
+
+			entries.add(new Entry(attributes.size(), lastUsed, partial,
+					referenced.contains(file)) {
+
+				@Override
+				boolean delete() {
+					return directoryStore.delete(file);
+				}
+			});
+		}
+
+		return entries;
+	}
+
+	private List<Entry> listRecords(final PackedThumbnailStore packedStore) {
+		Set<String> referenced = new HashSet<String>();
+		for (Thumbnail thumbnail : ImageTools.getCache().getThumbnails()) {
+			if (thumbnail.getStore() == store) {
+				referenced.add(PackedThumbnailStore.name(thumbnail.getKey()));
+			}
+		}
+
+		List<Entry> entries = new ArrayList<Entry>();
+
+		for (final PackedThumbnailStore.Stored stored : packedStore
+				.getStored()) {
+			entries.add(new Entry(stored.getLength(), stored.getLastAccess(),
+					false, referenced.contains(stored.getName())) {
+
+				@Override
+				boolean delete() {
+					return packedStore.delete(stored.getName());
+				}
+			});
+		}
+
+		return entries;
+	}
+
+	/**
+	 * File of a directory store or record of a packed store
+	 */
+
+	private abstract static class Entry {
+
+		private final long length;
+		private final long lastUsed;
+		private final boolean partial;
+		private final boolean referenced;
+
+		private Entry(long length, long lastUsed, boolean partial,
+				boolean referenced) {
+			this.length = length;
+			this.lastUsed = lastUsed;
+			this.partial = partial;
+			this.referenced = referenced;
+		}
+
+		/**
+		 * @return true if entry was deleted
+		 */
+
+		abstract boolean delete();
+	}
+
+	/**
+	 * Disk usage of a store, where a thumbnail of a packed store counts as
+	 * a file
+	 */
+
+	public static final class Usage {
+
+		private final int fileCount;
+		private final long totalBytes;
+		private final int deletedFiles;
+		private final long deletedBytes;
+
+		private Usage(int fileCount, long totalBytes, int deletedFiles,
+				long deletedBytes) {
+			this.fileCount = fileCount;
+			this.totalBytes = totalBytes;
+			this.deletedFiles = deletedFiles;
+			this.deletedBytes = deletedBytes;
+		}
+
+		/**
+		 * @return number of files left in the directory
+		 */
+
+		public int getFileCount() {
+			return fileCount;
+		}
+
+		/**
+		 * @return size of the files left in the directory in bytes
+		 */
+
+		public long getTotalBytes() {
+			return totalBytes;
+		}
+
+		/**
+		 * @return number of files deleted by the sweep
+		 */
+
+		public int getDeletedFiles() {
+			return deletedFiles;
+		}
+
+		/**
+		 * @return size of the files deleted by the sweep in bytes
+		 */
+
+		public long getDeletedBytes() {
+			return deletedBytes;
+		}
+
+		@Override
+		public String toString() {
+			return fileCount + " files, " + totalBytes + " bytes, deleted "
+					+ deletedFiles + " files, " + deletedBytes + " bytes";
+		}
+	}
+}
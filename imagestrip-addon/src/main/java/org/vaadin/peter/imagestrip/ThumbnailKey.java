@@ -0,0 +1,176 @@
+package org.vaadin.peter.imagestrip;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * ThumbnailKey identifies a scaled image by its source and the parameters it
+ * was scaled with. Several sizes, encodings and scalers of the same source
+ * can therefore be cached side by side.
+ */
+
+public final class ThumbnailKey implements Serializable {
+
+	private static final long serialVersionUID = -3619146425718412395L;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final String source;
+	private final int maxWidth;
+	private final int maxHeight;
+	private final ImageEncoding encoding;
+	private final ImageScaler scaler;
+
+	/**
+	 * @param source
+	 *            URL or absolute path of the source image
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @param format
+	 *            informal name of the output format, such as "jpg"
+	 */
+
+	public ThumbnailKey(String source, int maxWidth, int maxHeight,
+			String format) {
+		this(source, maxWidth, maxHeight, format != null ? new ImageEncoding(
+				format) : null);
+	}
+
+	/**
+	 * @param source
+	 *            URL or absolute path of the source image
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @param encoding
+	 *            encoding of the scaled image
+	 */
+
+	public ThumbnailKey(String source, int maxWidth, int maxHeight,
+			ImageEncoding encoding) {
+		this(source, maxWidth, maxHeight, encoding, ImageScaler.DEFAULT);
+	}
+
+	/**
+	 * @param source
+	 *            URL or absolute path of the source image
+	 * @param maxWidth
+	 * @param maxHeight
+	 * @param encoding
+	 *            encoding of the scaled image
+	 * @param scaler
+	 *            scaler the image is scaled with
+	 */
+
+	public ThumbnailKey(String source, int maxWidth, int maxHeight,
+			ImageEncoding encoding, ImageScaler scaler) {
+		if (source == null || encoding == null || scaler == null) {
+			throw new IllegalArgumentException(
+					"Source, format and scaler of a thumbnail must be given");
+		}
+
+		this.source = source;
+		this.maxWidth = maxWidth;
+		this.maxHeight = maxHeight;
+		this.encoding = encoding;
+		this.scaler = scaler;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public int getMaxWidth() {
+		return maxWidth;
+	}
+
+	public int getMaxHeight() {
+		return maxHeight;
+	}
+
+	public String getFormat() {
+		return encoding.getFormat();
+	}
+
+	public ImageEncoding getEncoding() {
+		return encoding;
+	}
+
+	public ImageScaler getScaler() {
+		return scaler;
+	}
+
+	/**
+	 * @return hex encoded SHA-1 hash of the source and scaling parameters,
+	 *         stable across restarts
+	 */
+
+	public String getDigest() {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(source.getBytes(UTF8));
+			digest.update((byte) 0);
+			digest.update((maxWidth + "x" + maxHeight).getBytes(UTF8));
+
+			// Format is left out, stores use it as the extension. Default
+			// encodings keep the digests of earlier versions.
+			if (!encoding.isDefault()) {
+				digest.update((byte) 0);
+				digest.update(encoding.toString().getBytes(UTF8));
+			}
+
+			if (!scaler.getName().equals(ImageScaler.DEFAULT.getName())) {
+				digest.update((byte) 0);
+				digest.update(("scaler " + scaler.getName()).getBytes(UTF8));
+			}
+
+			byte[] hash = digest.digest();
+			StringBuilder hex = new StringBuilder(hash.length * 2);
+
+			for (byte b : hash) {
+				hex.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+			}
+
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+
+		if (!(obj instanceof ThumbnailKey)) {
+			return false;
+		}
+
+		ThumbnailKey other = (ThumbnailKey) obj;
+		return maxWidth == other.maxWidth && maxHeight == other.maxHeight
+				&& source.equals(other.source)
+				&& encoding.equals(other.encoding)
+				&& scaler.getName().equals(other.scaler.getName());
+	}
+
+	@Override
+	public int hashCode() {
+		int result = source.hashCode();
+		result = 31 * result + maxWidth;
+		result = 31 * result + maxHeight;
+		result = 31 * result + encoding.hashCode();
+		result = 31 * result + scaler.getName().hashCode();
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return source + " [" + maxWidth + "x" + maxHeight + ", " + encoding
+				+ ", " + scaler.getName() + "]";
+	}
+}
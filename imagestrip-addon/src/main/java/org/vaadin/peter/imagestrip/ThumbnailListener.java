@@ -0,0 +1,134 @@
+package org.vaadin.peter.imagestrip;
+
+/**
+ * ThumbnailListener is notified of what ImageTools does while resizing
+ * images. It can be used to bridge the events to a metrics system,
+ * ThumbnailMetrics is an implementation that exposes them through JMX.
+ *
+ * Listeners are called on the thread that does the work, often a background
+ * thread, and must therefore be thread safe and fast. Exceptions thrown by a
+ * listener are ignored.
+ *
+ * @see ImageTools#addListener(ThumbnailListener)
+ */
+
+public interface ThumbnailListener {
+
+	/**
+	 * Timed stages of resizing an image
+	 */
+
+	enum Stage {
+
+		/**
+		 * Downloading a source image from its URL
+		 */
+
+		FETCH,
+
+		/**
+		 * Decoding a source image
+		 */
+
+		DECODE,
+
+		/**
+		 * Scaling a decoded image
+		 */
+
+		SCALE,
+
+		/**
+		 * Encoding a scaled image
+		 */
+
+		ENCODE,
+
+		/**
+		 * Writing an encoded image to the store
+		 */
+
+		WRITE,
+
+		/**
+		 * Whole resize as seen by the caller, including cache lookups and
+		 * waiting for a concurrent resize of the same image
+		 */
+
+		RESIZE;
+	}
+
+	/**
+	 * Called when a scaled image is found from the cache or the store
+	 *
+	 * @param key
+	 */
+
+	default void cacheHit(ThumbnailKey key) {
+	}
+
+	/**
+	 * Called when an image has to be scaled
+	 *
+	 * @param key
+	 */
+
+	default void cacheMiss(ThumbnailKey key) {
+	}
+
+	/**
+	 * Called when a thumbnail is evicted from the cache
+	 *
+	 * @param thumbnail
+	 */
+
+	default void evicted(Thumbnail thumbnail) {
+	}
+
+	/**
+	 * Called when a stage of resizing has completed
+	 *
+	 * @param key
+	 * @param stage
+	 * @param nanos
+	 *            duration of the stage in nanoseconds
+	 */
+
+	default void stageCompleted(ThumbnailKey key, Stage stage, long nanos) {
+	}
+
+	/**
+	 * Called when a source image has been read
+	 *
+	 * @param key
+	 * @param bytes
+	 *            size of the encoded source image
+	 */
+
+	default void sourceRead(ThumbnailKey key, long bytes) {
+	}
+
+	/**
+	 * Called when a scaled image has been written to the store
+	 *
+	 * @param thumbnail
+	 */
+
+	default void thumbnailWritten(Thumbnail thumbnail) {
+	}
+
+	/**
+	 * Called when an image is submitted for scaling in the background
+	 */
+
+	default void scalingQueued() {
+	}
+
+	/**
+	 * Called when an image submitted for scaling in the background has been
+	 * scaled or has failed
+	 */
+
+	default void scalingFinished() {
+	}
+}
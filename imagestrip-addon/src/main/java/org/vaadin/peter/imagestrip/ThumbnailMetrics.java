@@ -0,0 +1,347 @@
+package org.vaadin.peter.imagestrip;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * ThumbnailMetrics counts cache hits, misses and evictions, bytes read and
+ * written, and records latency histograms of each stage of resizing. Metrics
+ * can be read directly or through JMX once installed.
+ *
+ * <pre>
+ * ThumbnailMetrics metrics = ThumbnailMetrics.install();
+ * </pre>
+ */
+
+public class ThumbnailMetrics implements ThumbnailListener,
+		ThumbnailMetricsMXBean {
+
+	/**
+	 * Name the metrics are registered with in the platform MBean server
+	 */
+
+	public static final String OBJECT_NAME = "org.vaadin.peter.imagestrip:type=ThumbnailMetrics";
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final AtomicInteger queueDepth = new AtomicInteger();
+
+	private final Map<Stage, Histogram> latencies = new EnumMap<Stage, Histogram>(
+			Stage.class);
+
+	/**
+	 * Creates metrics that are not attached to ImageTools. Use install to
+	 * attach them and register them to JMX.
+	 */
+
+	public ThumbnailMetrics() {
+		for (Stage stage : Stage.values()) {
+			latencies.put(stage, new Histogram());
+		}
+	}
+
+	/**
+	 * Creates metrics, adds them as a listener of ImageTools and registers
+	 * them to the platform MBean server with OBJECT_NAME.
+	 *
+	 * @return installed metrics
+	 * @throws IllegalStateException
+	 *             if metrics are already registered
+	 */
+
+	public static ThumbnailMetrics install() {
+		ThumbnailMetrics metrics = new ThumbnailMetrics();
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(metrics, new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			throw new IllegalStateException("Unable to register metrics", e);
+		}
+
+		ImageTools.addListener(metrics);
+		return metrics;
+	}
+
+	/**
+	 * Removes these metrics from ImageTools and from the platform MBean
+	 * server
+	 */
+
+	public void uninstall() {
+		ImageTools.removeListener(this);
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException("Unable to unregister metrics", e);
+		}
+	}
+
+	@Override
+	public void cacheHit(ThumbnailKey key) {
+		hits.increment();
+	}
+
+	@Override
+	public void cacheMiss(ThumbnailKey key) {
+		misses.increment();
+	}
+
+	@Override
+	public void evicted(Thumbnail thumbnail) {
+		evictions.increment();
+	}
+
+	@Override
+	public void stageCompleted(ThumbnailKey key, Stage stage, long nanos) {
+		latencies.get(stage).record(nanos);
+	}
+
+	@Override
+	public void sourceRead(ThumbnailKey key, long bytes) {
+		bytesIn.add(bytes);
+	}
+
+	@Override
+	public void thumbnailWritten(Thumbnail thumbnail) {
+		bytesOut.add(thumbnail.getByteSize());
+	}
+
+	@Override
+	public void scalingQueued() {
+		queueDepth.incrementAndGet();
+	}
+
+	@Override
+	public void scalingFinished() {
+		queueDepth.decrementAndGet();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public double getCacheHitRatio() {
+		long hitCount = hits.sum();
+		long total = hitCount + misses.sum();
+
+		return total > 0 ? (double) hitCount / total : 0;
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public int getCacheSize() {
+		return ImageTools.getCache().size();
+	}
+
+	@Override
+	public long getCacheBytes() {
+		return ImageTools.getCache().getTotalBytes();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	@Override
+	public Map<String, Latency> getStageLatencies() {
+		Map<String, Latency> result = new LinkedHashMap<String, Latency>();
+
+		for (Stage stage : Stage.values()) {
+			result.put(stage.name(), getLatency(stage));
+		}
+
+		return result;
+	}
+
+	/**
+	 * @param stage
+	 * @return latency statistics of given stage
+	 */
+
+	public Latency getLatency(Stage stage) {
+		return latencies.get(stage).snapshot();
+	}
+
+	@Override
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+		bytesIn.reset();
+		bytesOut.reset();
+
+		for (Histogram histogram : latencies.values()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Latency histogram with buckets growing in powers of two, from one
+	 * microsecond to over an hour
+	 */
+
+	private static class Histogram {
+
+		private static final int BUCKETS = 32;
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final LongAdder total = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+
+		private void record(long nanos) {
+			long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));
+			int bucket = Math.min(BUCKETS - 1,
+					63 - Long.numberOfLeadingZeros(micros));
+
+			counts.incrementAndGet(bucket);
+			total.add(nanos);
+			max.accumulateAndGet(nanos, Math::max);
+		}
+
+		private void reset() {
+			for (int i = 0; i < BUCKETS; i++) {
+				counts.set(i, 0);
+			}
+			total.reset();
+			max.set(0);
+		}
+
+		private Latency snapshot() {
+			long[] snapshot = new long[BUCKETS];
+			long count = 0;
+
+			for (int i = 0; i < BUCKETS; i++) {
+				snapshot[i] = counts.get(i);
+				count += snapshot[i];
+			}
+
+			double maxMillis = toMillis(max.get());
+			double mean = count > 0 ? toMillis(total.sum()) / count : 0;
+
+			return new Latency(count, mean, Math.min(maxMillis,
+					percentile(snapshot, count, 0.5)), Math.min(maxMillis,
+					percentile(snapshot, count, 0.99)), maxMillis);
+		}
+
+		/**
+		 * @return upper bound of the bucket that holds given percentile in
+		 *         milliseconds
+		 */
+
+		private static double percentile(long[] snapshot, long count,
+				double percentile) {
+			long threshold = (long) Math.ceil(count * percentile);
+			long cumulative = 0;
+
+			for (int i = 0; i < BUCKETS; i++) {
+				cumulative += snapshot[i];
+
+				if (cumulative >= threshold && cumulative > 0) {
+					return (2L << i) / 1000.0;
+				}
+			}
+
+			return 0;
+		}
+
+		private static double toMillis(long nanos) {
+			return nanos / 1000000.0;
+		}
+	}
+
+	/**
+	 * Latency statistics of a stage. Percentiles are upper bounds of
+	 * histogram buckets, accurate within a factor of two.
+	 */
+
+	public static final class Latency {
+
+		private final long count;
+		private final double meanMillis;
+		private final double medianMillis;
+		private final double p99Millis;
+		private final double maxMillis;
+
+		@ConstructorProperties({ "count", "meanMillis", "medianMillis",
+				"p99Millis", "maxMillis" })
+		public Latency(long count, double meanMillis, double medianMillis,
+				double p99Millis, double maxMillis) {
+			this.count = count;
+			this.meanMillis = meanMillis;
+			this.medianMillis = medianMillis;
+			this.p99Millis = p99Millis;
+			this.maxMillis = maxMillis;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMeanMillis() {
+			return meanMillis;
+		}
+
+		public double getMedianMillis() {
+			return medianMillis;
+		}
+
+		public double getP99Millis() {
+			return p99Millis;
+		}
+
+		public double getMaxMillis() {
+			return maxMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d calls, mean %.2f ms, median %.2f ms, "
+					+ "p99 %.2f ms, max %.2f ms", count, meanMillis,
+					medianMillis, p99Millis, maxMillis);
+		}
+	}
+}
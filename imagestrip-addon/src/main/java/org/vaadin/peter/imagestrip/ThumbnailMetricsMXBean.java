@@ -0,0 +1,65 @@
+package org.vaadin.peter.imagestrip;
+
+import java.util.Map;
+
+/**
+ * Management interface of ThumbnailMetrics
+ */
+
+public interface ThumbnailMetricsMXBean {
+
+	long getCacheHits();
+
+	long getCacheMisses();
+
+	/**
+	 * @return share of lookups that were served without scaling, between 0
+	 *         and 1
+	 */
+
+	double getCacheHitRatio();
+
+	long getEvictions();
+
+	/**
+	 * @return number of entries in the cache of ImageTools
+	 */
+
+	int getCacheSize();
+
+	/**
+	 * @return size of the thumbnails in the cache of ImageTools in bytes
+	 */
+
+	long getCacheBytes();
+
+	/**
+	 * @return total size of the source images read in bytes
+	 */
+
+	long getBytesIn();
+
+	/**
+	 * @return total size of the thumbnails written in bytes
+	 */
+
+	long getBytesOut();
+
+	/**
+	 * @return number of images waiting for or being scaled in the background
+	 */
+
+	int getQueueDepth();
+
+	/**
+	 * @return latency statistics by the name of the stage
+	 */
+
+	Map<String, ThumbnailMetrics.Latency> getStageLatencies();
+
+	/**
+	 * Resets counters and latency statistics
+	 */
+
+	void reset();
+}
@@ -0,0 +1,566 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * ThumbnailPrewarmer scales a catalog of images ahead of time so that the
+ * first visitors of an ImageStrip do not have to wait for the images to be
+ * scaled. Images are scaled in parallel with ImageTools into its current
+ * store, which should therefore be the store the application uses at runtime.
+ *
+ * The prewarmer can be run from the command line with the add-on jar:
+ *
+ * <pre>
+ * java -jar imagestrip.jar --store /var/cache/thumbnails --size 110x110 /srv/catalog
+ * </pre>
+ *
+ * Run without arguments to list the options.
+ */
+
+public class ThumbnailPrewarmer {
+
+	private final List<Dimension> sizes = new ArrayList<Dimension>();
+
+	private ImageEncoding encoding = ImageEncoding.DEFAULT;
+	private ImageScaler scaler = ImageScaler.DEFAULT;
+	private int maxPixelDensity = 1;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private PrintStream progress;
+
+	/**
+	 * Adds a size the images are scaled to fit, such as the maximum image
+	 * size of an ImageStrip
+	 *
+	 * @param maxWidth
+	 * @param maxHeight
+	 */
+
+	public void addSize(int maxWidth, int maxHeight) {
+		if (maxWidth <= 0 || maxHeight <= 0) {
+			throw new IllegalArgumentException("Size must be positive");
+		}
+		sizes.add(new Dimension(maxWidth, maxHeight));
+	}
+
+	public List<Dimension> getSizes() {
+		return Collections.unmodifiableList(sizes);
+	}
+
+	public ImageEncoding getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Sets the encoding of the scaled images, which must match the encoding
+	 * of the strips that show them
+	 *
+	 * @param encoding
+	 */
+
+	public void setEncoding(ImageEncoding encoding) {
+		if (encoding == null) {
+			throw new IllegalArgumentException("Encoding must be given");
+		}
+		this.encoding = encoding;
+	}
+
+	public ImageScaler getScaler() {
+		return scaler;
+	}
+
+	/**
+	 * Sets the scaler of the scaled images, which must match the scaler of
+	 * the strips that show them
+	 *
+	 * @param scaler
+	 */
+
+	public void setScaler(ImageScaler scaler) {
+		if (scaler == null) {
+			throw new IllegalArgumentException("Scaler must be given");
+		}
+		this.scaler = scaler;
+	}
+
+	public int getMaxPixelDensity() {
+		return maxPixelDensity;
+	}
+
+	/**
+	 * Sets the highest pixel density variant that is scaled for each size,
+	 * see ImageStrip.setMaxPixelDensity
+	 *
+	 * @param maxPixelDensity
+	 */
+
+	public void setMaxPixelDensity(int maxPixelDensity) {
+		if (maxPixelDensity < 1
+				|| maxPixelDensity > ImageStrip.MAX_PIXEL_DENSITY) {
+			throw new IllegalArgumentException(
+					"Pixel density must be between 1 and "
+							+ ImageStrip.MAX_PIXEL_DENSITY);
+		}
+		this.maxPixelDensity = maxPixelDensity;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Sets the number of images scaled in parallel, by default the number of
+	 * processors
+	 *
+	 * @param threads
+	 */
+
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException(
+					"At least one thread is needed");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the stream a line of progress is printed to for every hundred
+	 * thumbnails, or null to print no progress
+	 *
+	 * @param progress
+	 */
+
+	public void setProgress(PrintStream progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * Scales every image of given directory and its subdirectories. Files
+	 * are included if ImageIO has a reader for their extension.
+	 *
+	 * @param directory
+	 * @return report of the scaled images
+	 * @throws IOException
+	 *             if listing the directory fails
+	 */
+
+	public Report prewarmDirectory(File directory) throws IOException {
+		Set<String> suffixes = new HashSet<String>();
+		for (String suffix : ImageIO.getReaderFileSuffixes()) {
+			suffixes.add(suffix.toLowerCase(Locale.ENGLISH));
+		}
+
+		List<Object> sources;
+
+		try (Stream<Path> paths = Files.walk(directory.toPath())) {
+			sources = paths.filter(Files::isRegularFile)
+					.map(Path::toFile)
+					.filter(file -> suffixes.contains(suffixOf(file)))
+					.sorted().collect(Collectors.toList());
+		}
+
+		return prewarm(sources);
+	}
+
+	/**
+	 * Scales every image listed in given manifest. Each line holds a URL or
+	 * a path of a file, empty lines and lines starting with # are skipped.
+	 *
+	 * @param manifest
+	 * @return report of the scaled images
+	 * @throws IOException
+	 *             if reading the manifest fails
+	 */
+
+	public Report prewarmManifest(File manifest) throws IOException {
+		List<Object> sources = new ArrayList<Object>();
+
+		for (String line : Files.readAllLines(manifest.toPath(),
+				StandardCharsets.UTF_8)) {
+			String source = line.trim();
+
+			if (source.isEmpty() || source.startsWith("#")) {
+				continue;
+			}
+
+			if (source.contains("://")) {
+				sources.add(source);
+			} else {
+				sources.add(new File(source));
+			}
+		}
+
+		return prewarm(sources);
+	}
+
+	/**
+	 * Scales given sources to every size and pixel density
+	 *
+	 * @param sources
+	 *            files or URLs of the source images
+	 * @return report of the scaled images
+	 */
+
+	public Report prewarm(List<?> sources) {
+		List<Dimension> targets = new ArrayList<Dimension>();
+		for (Dimension size : sizes.isEmpty() ? Arrays.asList(new Dimension(
+				110, 110)) : sizes) {
+			for (int density = 1; density <= maxPixelDensity; density++) {
+				targets.add(new Dimension(size.width * density, size.height
+						* density));
+			}
+		}
+
+		int total = sources.size() * targets.size();
+		AtomicInteger done = new AtomicInteger();
+		List<Thumbnail> thumbnails = Collections
+				.synchronizedList(new ArrayList<Thumbnail>());
+		List<Failure> failures = Collections
+				.synchronizedList(new ArrayList<Failure>());
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		long start = System.nanoTime();
+
+		for (Object source : sources) {
+			for (Dimension target : targets) {
+				tasks.add(executor.submit(() -> {
+					try {
+						thumbnails.add(resize(source, target));
+					} catch (Exception e) {
+						failures.add(new Failure(source.toString(), target,
+								e.getMessage() != null ? e.getMessage() : e
+										.toString()));
+					}
+
+					int count = done.incrementAndGet();
+					if (progress != null && count % 100 == 0) {
+						progress.println(count + " / " + total);
+					}
+				}));
+			}
+		}
+
+		try {
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Tasks catch their own exceptions
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		long nanos = System.nanoTime() - start;
+
+		// Store may have dropped some of the thumbnails to make room for
+		// others, only the ones that are still there are warm
+		int stored = 0;
+		long bytes = 0;
+		for (Thumbnail thumbnail : thumbnails) {
+			if (thumbnail.exists()) {
+				stored++;
+				bytes += thumbnail.getByteSize();
+			}
+		}
+
+		return new Report(stored, thumbnails.size() - stored, bytes, nanos,
+				new ArrayList<Failure>(failures));
+	}
+
+	private Thumbnail resize(Object source, Dimension target)
+			throws ImageToolsException, IOException {
+		if (source instanceof File) {
+			return ImageTools.resizeImage((File) source, target.width,
+					target.height, encoding, scaler);
+		}
+
+		return ImageTools.resizeImage(source.toString(), target.width,
+				target.height, encoding, scaler);
+	}
+
+	private static String suffixOf(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+
+		return dot >= 0 ? name.substring(dot + 1).toLowerCase(Locale.ENGLISH)
+				: "";
+	}
+
+	/**
+	 * Command line entry point, run without arguments for usage
+	 *
+	 * @param args
+	 */
+
+	public static void main(String[] args) {
+		ThumbnailPrewarmer prewarmer = new ThumbnailPrewarmer();
+		ThumbnailStore store = null;
+		File target = null;
+
+		float quality = ImageEncoding.DEFAULT_QUALITY;
+		boolean progressive = false;
+		String format = ImageEncoding.DEFAULT.getFormat();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+
+				if (!arg.startsWith("--")) {
+					if (target != null) {
+						throw new IllegalArgumentException(
+								"Only one directory or manifest can be given");
+					}
+					target = new File(arg);
+					continue;
+				}
+
+				if ("--progressive".equals(arg)) {
+					progressive = true;
+					continue;
+				}
+
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("Missing value for "
+							+ arg);
+				}
+				String value = args[++i];
+
+				switch (arg) {
+				case "--size":
+					String[] size = value.toLowerCase(Locale.ENGLISH).split("x");
+					if (size.length != 2) {
+						throw new IllegalArgumentException(
+								"Size must be given as WIDTHxHEIGHT");
+					}
+					prewarmer.addSize(Integer.parseInt(size[0]),
+							Integer.parseInt(size[1]));
+					break;
+				case "--store":
+					store = new DirectoryThumbnailStore(new File(value));
+					break;
+				case "--packed-store":
+					store = new PackedThumbnailStore(new File(value));
+					break;
+				case "--format":
+					format = value;
+					break;
+				case "--quality":
+					quality = Float.parseFloat(value);
+					break;
+				case "--scaler":
+					prewarmer.setScaler(ImageScaler.forName(value));
+					break;
+				case "--density":
+					prewarmer.setMaxPixelDensity(Integer.parseInt(value));
+					break;
+				case "--threads":
+					prewarmer.setThreads(Integer.parseInt(value));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+
+			if (target == null) {
+				throw new IllegalArgumentException(
+						"Directory or manifest must be given");
+			}
+
+			prewarmer.setEncoding(new ImageEncoding(format, quality,
+					progressive));
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			printUsage(System.err);
+			System.exit(2);
+			return;
+		}
+
+		if (store != null) {
+			ImageTools.setStore(store);
+		}
+		prewarmer.setProgress(System.err);
+
+		try {
+			Report report = target.isDirectory() ? prewarmer
+					.prewarmDirectory(target) : prewarmer
+					.prewarmManifest(target);
+
+			for (Failure failure : report.getFailures()) {
+				System.err.println("FAILED " + failure);
+			}
+			System.out.println(report);
+
+			System.exit(report.getFailures().isEmpty() ? 0 : 1);
+		} catch (IOException e) {
+			System.err.println("Unable to read " + target + ": "
+					+ e.getMessage());
+			System.exit(2);
+		} finally {
+			if (store instanceof PackedThumbnailStore) {
+				try {
+					((PackedThumbnailStore) store).close();
+				} catch (IOException ignored) {
+					// Exiting anyway
+				}
+			}
+		}
+	}
+
+	private static void printUsage(PrintStream out) {
+		out.println("Usage: java -jar imagestrip.jar [options] <directory|manifest>");
+		out.println();
+		out.println("Scales images of a directory, or URLs and paths listed one per line");
+		out.println("in a manifest, into the thumbnail store used by ImageStrip.");
+		out.println();
+		out.println("  --size WxH            size to fit images to, repeatable (110x110)");
+		out.println("  --store DIR           directory of a DirectoryThumbnailStore (-D"
+				+ ImageTools.STORAGE_DIRECTORY_PROPERTY + ")");
+		out.println("  --packed-store DIR    directory of a PackedThumbnailStore");
+		out.println("  --format FORMAT       output format (jpg)");
+		out.println("  --quality Q           compression quality between 0 and 1");
+		out.println("  --progressive         write progressive JPEG");
+		out.println("  --scaler NAME         default, nearest, box, progressive-bilinear or lanczos3");
+		out.println("  --density N           also scale variants up to pixel density N (1)");
+		out.println("  --threads N           images scaled in parallel (processors)");
+	}
+
+	/**
+	 * Image that could not be scaled
+	 */
+
+	public static final class Failure {
+
+		private final String source;
+		private final Dimension size;
+		private final String message;
+
+		private Failure(String source, Dimension size, String message) {
+			this.source = source;
+			this.size = size;
+			this.message = message;
+		}
+
+		public String getSource() {
+			return source;
+		}
+
+		public Dimension getSize() {
+			return new Dimension(size);
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		@Override
+		public String toString() {
+			return source + " " + size.width + "x" + size.height + ": "
+					+ message;
+		}
+	}
+
+	/**
+	 * Outcome of a prewarming run
+	 */
+
+	public static final class Report {
+
+		private final int thumbnails;
+		private final int dropped;
+		private final long bytes;
+		private final long nanos;
+		private final List<Failure> failures;
+
+		private Report(int thumbnails, int dropped, long bytes, long nanos,
+				List<Failure> failures) {
+			this.thumbnails = thumbnails;
+			this.dropped = dropped;
+			this.bytes = bytes;
+			this.nanos = nanos;
+			this.failures = Collections.unmodifiableList(failures);
+		}
+
+		/**
+		 * @return number of thumbnails scaled or found in the store that are
+		 *         still stored at the end of the run
+		 */
+
+		public int getThumbnails() {
+			return thumbnails;
+		}
+
+		/**
+		 * @return number of thumbnails that were scaled but had already been
+		 *         dropped by the store at the end of the run, which happens
+		 *         when the store is too small for the catalog
+		 */
+
+		public int getDropped() {
+			return dropped;
+		}
+
+		/**
+		 * @return total size of the stored thumbnails in bytes
+		 */
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return duration of the run in milliseconds
+		 */
+
+		public long getElapsedMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(nanos);
+		}
+
+		/**
+		 * @return thumbnails per second, including failures
+		 */
+
+		public double getThroughput() {
+			return nanos > 0 ? (thumbnails + dropped + failures.size()) * 1e9
+					/ nanos : 0;
+		}
+
+		public List<Failure> getFailures() {
+			return failures;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ENGLISH,
+					"%d thumbnails, %d bytes, %d dropped, %d failed in %.1f s"
+							+ " (%.1f/s)", thumbnails, bytes, dropped,
+					failures.size(), nanos / 1e9, getThroughput());
+		}
+	}
+}
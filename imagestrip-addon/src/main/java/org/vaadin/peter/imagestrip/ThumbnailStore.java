@@ -0,0 +1,128 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * ThumbnailStore keeps the encoded bytes of scaled images. ImageTools writes
+ * every scaled image to its store. When ThumbnailCache evicts an image, it is
+ * removed from a store that only lives in memory, while persistent stores
+ * keep it for later lookups and are kept in bounds by ThumbnailJanitor.
+ *
+ * Implementations must be thread safe.
+ */
+
+public interface ThumbnailStore {
+
+	/**
+	 * @param key
+	 * @return stored thumbnail for given key or null if the key has not been
+	 *         stored
+	 */
+
+	Thumbnail get(ThumbnailKey key);
+
+	/**
+	 * Stores given encoded image.
+	 *
+	 * @param key
+	 * @param data
+	 *            image encoded with the encoding of the key
+	 * @param width
+	 *            width of the encoded image in pixels
+	 * @param height
+	 *            height of the encoded image in pixels
+	 * @return stored thumbnail
+	 * @throws IOException
+	 *             if writing the image fails
+	 */
+
+	Thumbnail put(ThumbnailKey key, byte[] data, int width, int height)
+			throws IOException;
+
+	/**
+	 * Stores given encoded image together with the size and modification
+	 * time of the source file it was scaled from, which ImageTools compares
+	 * to the file on later lookups. Stores that cannot keep them store the
+	 * image alone, in which case a changed source is only noticed while the
+	 * application runs or from the modification time of a thumbnail file.
+	 *
+	 * @param key
+	 * @param data
+	 *            image encoded with the encoding of the key
+	 * @param width
+	 *            width of the encoded image in pixels
+	 * @param height
+	 *            height of the encoded image in pixels
+	 * @param sourceLength
+	 *            size of the source file in bytes or -1 if source is not a
+	 *            file
+	 * @param sourceModified
+	 *            modification time of the source file in milliseconds or -1
+	 *            if source is not a file
+	 * @return stored thumbnail
+	 * @throws IOException
+	 *             if writing the image fails
+	 */
+
+	default Thumbnail put(ThumbnailKey key, byte[] data, int width,
+			int height, long sourceLength, long sourceModified)
+			throws IOException {
+		return put(key, data, width, height);
+	}
+
+	/**
+	 * Encodes given scaled image with the encoding of the key and stores it.
+	 *
+	 * @param key
+	 * @param scaledImage
+	 * @return stored thumbnail
+	 * @throws IOException
+	 *             if encoding or writing the image fails
+	 */
+
+	default Thumbnail put(ThumbnailKey key, BufferedImage scaledImage)
+			throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ImageTools.encodeImage(scaledImage, key, output);
+
+		return put(key, output.toByteArray(), scaledImage.getWidth(),
+				scaledImage.getHeight());
+	}
+
+	/**
+	 * @param thumbnail
+	 * @return true if given thumbnail can still be read from this store
+	 */
+
+	boolean contains(Thumbnail thumbnail);
+
+	/**
+	 * @param thumbnail
+	 * @return stream of the encoded bytes of given thumbnail
+	 * @throws IOException
+	 *             if thumbnail is no longer stored or cannot be read
+	 */
+
+	InputStream openStream(Thumbnail thumbnail) throws IOException;
+
+	/**
+	 * @return true if thumbnails of this store outlive the cache and the
+	 *         application, in which case evicting them from the cache
+	 *         leaves them stored
+	 */
+
+	default boolean isPersistent() {
+		return false;
+	}
+
+	/**
+	 * Removes given thumbnail from this store
+	 *
+	 * @param thumbnail
+	 */
+
+	void remove(Thumbnail thumbnail);
+}
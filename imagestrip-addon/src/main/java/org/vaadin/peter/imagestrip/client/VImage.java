@@ -2,9 +2,27 @@ package org.vaadin.peter.imagestrip.client;
 
 public class VImage {
 
+	/**
+	 * Highest pixel density the server can offer variants for
+	 */
+
+	public static final int MAX_PIXEL_DENSITY = 3;
+
 	private final int imageIndex;
 	private final String url;
 
+	/**
+	 * URLs of higher pixel density variants indexed by their density
+	 */
+
+	private final String[] variantUrls = new String[MAX_PIXEL_DENSITY + 1];
+
+	private String placeholderColor;
+
+	private String spriteUrl;
+	private int spriteX;
+	private int spriteY;
+
 	private final int width;
 	private final int height;
 
@@ -23,6 +41,97 @@ public class VImage {
 		return url;
 	}
 
+	/**
+	 * Sets the URL of the variant scaled for given pixel density
+	 * 
+	 * @param density
+	 * @param variantUrl
+	 */
+
+	public void setVariantURL(int density, String variantUrl) {
+		variantUrls[density] = variantUrl;
+	}
+
+	/**
+	 * Picks the smallest variant that is at least as dense as the screen,
+	 * or the densest variant if the screen is denser than all of them.
+	 * 
+	 * @param devicePixelRatio
+	 * @return URL of the variant best suited for given device pixel ratio
+	 */
+
+	public String getURL(double devicePixelRatio) {
+		String best = url;
+		int bestDensity = 1;
+
+		for (int density = 2; density <= MAX_PIXEL_DENSITY; density++) {
+			if (bestDensity >= devicePixelRatio) {
+				break;
+			}
+
+			if (variantUrls[density] != null) {
+				best = variantUrls[density];
+				bestDensity = density;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * @return CSS color shown until the image has been loaded, or null
+	 */
+
+	public String getPlaceholderColor() {
+		return placeholderColor;
+	}
+
+	public void setPlaceholderColor(String placeholderColor) {
+		this.placeholderColor = placeholderColor;
+	}
+
+	/**
+	 * Shows this image as a part of a sprite that holds several images
+	 * 
+	 * @param spriteUrl
+	 * @param spriteX
+	 *            left edge of the image in the sprite
+	 * @param spriteY
+	 *            top edge of the image in the sprite
+	 */
+
+	public void setSprite(String spriteUrl, int spriteX, int spriteY) {
+		this.spriteUrl = spriteUrl;
+		this.spriteX = spriteX;
+		this.spriteY = spriteY;
+	}
+
+	/**
+	 * @return URL of the sprite this image is a part of, or null if the
+	 *         image is loaded on its own
+	 */
+
+	public String getSpriteURL() {
+		return spriteUrl;
+	}
+
+	public int getSpriteX() {
+		return spriteX;
+	}
+
+	public int getSpriteY() {
+		return spriteY;
+	}
+
+	/**
+	 * @return true if the image is still being scaled on the server and only
+	 *         a placeholder of its size can be shown
+	 */
+
+	public boolean isPending() {
+		return url == null;
+	}
+
 	public int getWidth() {
 		return width;
 	}
@@ -103,18 +103,47 @@ public class VImageStrip extends FlowPanel implements ClickHandler,
 		if (uidl.getChildByTagName("images") != null) {
 			UIDL imagesUIDL = uidl.getChildByTagName("images");
 
+			String spriteUrl = null;
+			if (imagesUIDL.hasAttribute("sprite")) {
+				spriteUrl = connection.translateVaadinUri(imagesUIDL
+						.getStringAttribute("sprite"));
+			}
+
 			Iterator<Object> imageIterator = imagesUIDL.getChildIterator();
 
 			while (imageIterator.hasNext()) {
 				UIDL imageUIDL = (UIDL) imageIterator.next();
 
 				int index = imageUIDL.getIntAttribute("index");
-				String url = connection.translateVaadinUri(imageUIDL
-						.getStringAttribute("resource"));
+				String url = null;
+				if (!imageUIDL.getBooleanAttribute("pending")) {
+					url = connection.translateVaadinUri(imageUIDL
+							.getStringAttribute("resource"));
+				}
 				int width = imageUIDL.getIntAttribute("width");
 				int height = imageUIDL.getIntAttribute("height");
 
 				VImage image = new VImage(index, url, width, height);
+
+				for (int density = 2; density <= VImage.MAX_PIXEL_DENSITY; density++) {
+					String variant = "resource" + density + "x";
+					if (url != null && imageUIDL.hasAttribute(variant)) {
+						image.setVariantURL(density, connection
+								.translateVaadinUri(imageUIDL
+										.getStringAttribute(variant)));
+					}
+				}
+
+				if (spriteUrl != null && imageUIDL.hasAttribute("spriteX")) {
+					image.setSprite(spriteUrl,
+							imageUIDL.getIntAttribute("spriteX"),
+							imageUIDL.getIntAttribute("spriteY"));
+				}
+
+				if (imageUIDL.hasAttribute("placeholder")) {
+					image.setPlaceholderColor(imageUIDL
+							.getStringAttribute("placeholder"));
+				}
 				imagesToShow.add(image);
 			}
 
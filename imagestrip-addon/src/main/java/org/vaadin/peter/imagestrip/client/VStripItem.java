@@ -4,6 +4,8 @@ import com.google.gwt.user.client.DOM;
 import com.google.gwt.user.client.Event;
 import com.google.gwt.user.client.ui.FlowPanel;
 import com.google.gwt.user.client.ui.Image;
+import com.google.gwt.user.client.ui.SimplePanel;
+import com.google.gwt.user.client.ui.Widget;
 
 /**
  * VStripItem is an image inside the VStrip
@@ -31,7 +33,7 @@ public class VStripItem extends FlowPanel {
     private final int height;
 
     private final VImage image;
-    private final Image imageElement;
+    private final Widget imageElement;
 
     private final VStrip strip;
 
@@ -47,9 +49,40 @@ public class VStripItem extends FlowPanel {
 
 	setStyleName("image-border " + alignment);
 
-	imageElement = new Image();
-	imageElement.setStyleName("image");
-	imageElement.setUrl(image.getURL());
+	if (image.isPending()) {
+	    // Reserve the space of the image until it is ready on the server
+	    imageElement = new Image();
+	    imageElement.setStyleName("image image-placeholder");
+	    imageElement.setPixelSize(image.getWidth(), image.getHeight());
+	} else if (image.getSpriteURL() != null) {
+	    // Image is cut from the sprite shared by the images of the window
+	    imageElement = new SimplePanel();
+	    imageElement.setStyleName("image image-sprite");
+	    imageElement.setPixelSize(image.getWidth(), image.getHeight());
+
+	    DOM.setStyleAttribute(imageElement.getElement(), "backgroundImage",
+		    "url(\"" + image.getSpriteURL() + "\")");
+	    DOM.setStyleAttribute(imageElement.getElement(),
+		    "backgroundPosition", -image.getSpriteX() + "px "
+			    + -image.getSpriteY() + "px");
+	    DOM.setStyleAttribute(imageElement.getElement(),
+		    "backgroundRepeat", "no-repeat");
+	} else {
+	    Image imageTag = new Image();
+	    imageTag.setUrl(image.getURL(getDevicePixelRatio()));
+
+	    imageElement = imageTag;
+	    imageElement.setStyleName("image");
+
+	    // Denser variants are shown in the size of the 1x image
+	    imageElement.setPixelSize(image.getWidth(), image.getHeight());
+	}
+
+	if (image.getPlaceholderColor() != null) {
+	    // Shown behind the image until it has been loaded
+	    DOM.setStyleAttribute(imageElement.getElement(), "backgroundColor",
+		    image.getPlaceholderColor());
+	}
 
 	add(imageElement);
 	centerImage();
@@ -79,6 +112,15 @@ public class VStripItem extends FlowPanel {
 	}
     }
 
+    /**
+     * @return ratio of physical pixels to CSS pixels of the screen
+     */
+
+    private static native double getDevicePixelRatio()
+    /*-{
+	return $wnd.devicePixelRatio || 1;
+    }-*/;
+
     public static VStripItem horizontalStripItem(int width, int height,
 	    VImage image, VStrip strip) {
 	return new VStripItem("horizontal", width, height, image, strip);
@@ -0,0 +1,77 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DirectoryThumbnailStoreTest {
+
+	@Test
+	public void storedImageIsFoundAfterRestart() throws IOException {
+		File directory = Files.createTempDirectory("imagestrip-store")
+				.toFile();
+		ThumbnailKey key = new ThumbnailKey("http://example.com/a.jpg", 110,
+				110, "jpg");
+
+		DirectoryThumbnailStore store = new DirectoryThumbnailStore(
+				directory);
+		Assert.assertNull(store.get(key));
+
+		Thumbnail stored = store.put(key, new BufferedImage(20, 10,
+				BufferedImage.TYPE_INT_RGB));
+		Assert.assertTrue(stored.getFile().exists());
+		Assert.assertEquals(stored.getFile().length(), stored.getByteSize());
+
+		// A new store over the same directory rebuilds its index
+		DirectoryThumbnailStore restarted = new DirectoryThumbnailStore(
+				directory);
+		Thumbnail found = restarted.get(key);
+		Assert.assertEquals(stored.getFile(), found.getFile());
+		Assert.assertEquals(20, found.getWidth());
+		Assert.assertEquals(10, found.getHeight());
+		Assert.assertEquals(1, restarted.size());
+	}
+
+	@Test
+	public void imageStoredByAnotherProcessIsFound() throws IOException {
+		File directory = Files.createTempDirectory("imagestrip-store")
+				.toFile();
+		ThumbnailKey key = new ThumbnailKey("http://example.com/b.jpg", 110,
+				110, "jpg");
+
+		DirectoryThumbnailStore store = new DirectoryThumbnailStore(
+				directory);
+		Assert.assertNull(store.get(key));
+		Assert.assertEquals(0, store.size());
+
+		new DirectoryThumbnailStore(directory).put(key, new BufferedImage(20,
+				10, BufferedImage.TYPE_INT_RGB));
+
+		Thumbnail found = store.get(key);
+		Assert.assertNotNull(found);
+		Assert.assertEquals(20, found.getWidth());
+		Assert.assertEquals(1, store.size());
+	}
+
+	@Test
+	public void fileNameDependsOnScalingParameters() {
+		DirectoryThumbnailStore store = new DirectoryThumbnailStore(new File(
+				"unused"));
+
+		String small = store.fileName(new ThumbnailKey("source", 110, 110,
+				"jpg"));
+
+		Assert.assertEquals(small,
+				store.fileName(new ThumbnailKey("source", 110, 110, "jpg")));
+		Assert.assertFalse(small.equals(store.fileName(new ThumbnailKey(
+				"source", 220, 220, "jpg"))));
+		Assert.assertFalse(small.equals(store.fileName(new ThumbnailKey(
+				"other", 110, 110, "jpg"))));
+		Assert.assertFalse(small.equals(store.fileName(new ThumbnailKey(
+				"source", 110, 110, "png"))));
+	}
+}
@@ -0,0 +1,129 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ImageScalerTest {
+
+	private static final ImageScaler[] SCALERS = { ImageScaler.DEFAULT,
+			ImageScaler.NEAREST, ImageScaler.BOX,
+			ImageScaler.PROGRESSIVE_BILINEAR, ImageScaler.LANCZOS };
+
+	@Test
+	public void scalersKeepSizeAndColor() {
+		for (int type : new int[] { BufferedImage.TYPE_INT_RGB,
+				BufferedImage.TYPE_3BYTE_BGR }) {
+			BufferedImage source = new BufferedImage(801, 399, type);
+			Graphics2D graphics = source.createGraphics();
+			graphics.setColor(new Color(200, 100, 50));
+			graphics.fillRect(0, 0, 801, 399);
+			graphics.dispose();
+
+			for (ImageScaler scaler : SCALERS) {
+				BufferedImage scaled = scaler.scale(source, 110, 55, false);
+
+				Assert.assertEquals(scaler.getName(), 110, scaled.getWidth());
+				Assert.assertEquals(scaler.getName(), 55, scaled.getHeight());
+				Assert.assertEquals(scaler.getName(),
+						BufferedImage.TYPE_INT_RGB, scaled.getType());
+				assertColor(scaler, 0xffc86432, scaled.getRGB(54, 27));
+				assertColor(scaler, 0xffc86432, scaled.getRGB(109, 54));
+			}
+		}
+	}
+
+	@Test
+	public void scalersKeepTransparency() {
+		BufferedImage source = new BufferedImage(400, 400,
+				BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < 400; y++) {
+			for (int x = 200; x < 400; x++) {
+				source.setRGB(x, y, 0xff0000ff);
+			}
+		}
+
+		for (ImageScaler scaler : SCALERS) {
+			BufferedImage scaled = scaler.scale(source, 100, 100, true);
+
+			Assert.assertEquals(scaler.getName(), 0,
+					scaled.getRGB(10, 50) >>> 24);
+			// Transparent pixels must not darken the opaque side
+			assertColor(scaler, 0xff0000ff, scaled.getRGB(90, 50));
+		}
+	}
+
+	@Test
+	public void bandsMatchSingleScale() {
+		BufferedImage source = new BufferedImage(801, 399,
+				BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < 399; y++) {
+			for (int x = 0; x < 801; x++) {
+				source.setRGB(x, y, (x * 7 + y) << 24 | (x * 31 + y * 17));
+			}
+		}
+
+		long threshold = ImageTools.getParallelScalingThreshold();
+
+		try {
+			for (ImageScaler scaler : SCALERS) {
+				if (!(scaler instanceof BandedImageScaler)) {
+					continue;
+				}
+
+				BandedImageScaler banded = (BandedImageScaler) scaler;
+				BufferedImage single = scaler.scale(source, 110, 55, true);
+
+				BufferedImage bands = RasterImageScaler.createImage(110, 55,
+						true);
+				banded.scaleBand(source, bands, 0, 7, true);
+				banded.scaleBand(source, bands, 7, 30, true);
+				banded.scaleBand(source, bands, 30, 55, true);
+				assertSamePixels(scaler, single, bands);
+
+				ImageTools.setParallelScalingThreshold(1);
+				assertSamePixels(scaler, single,
+						scaler.scale(source, 110, 55, true));
+				ImageTools.setParallelScalingThreshold(threshold);
+			}
+		} finally {
+			ImageTools.setParallelScalingThreshold(threshold);
+		}
+	}
+
+	@Test
+	public void scalerIsPartOfThumbnailKey() {
+		ThumbnailKey box = new ThumbnailKey("image.png", 110, 110,
+				ImageEncoding.DEFAULT, ImageScaler.BOX);
+		ThumbnailKey lanczos = new ThumbnailKey("image.png", 110, 110,
+				ImageEncoding.DEFAULT, ImageScaler.LANCZOS);
+		ThumbnailKey plain = new ThumbnailKey("image.png", 110, 110, "jpg");
+
+		Assert.assertFalse(box.equals(lanczos));
+		Assert.assertFalse(box.getDigest().equals(lanczos.getDigest()));
+		Assert.assertEquals(plain, new ThumbnailKey("image.png", 110, 110,
+				ImageEncoding.DEFAULT, ImageScaler.DEFAULT));
+		Assert.assertSame(ImageScaler.LANCZOS,
+				ImageScaler.forName(ImageScaler.LANCZOS.getName()));
+	}
+
+	private static void assertSamePixels(ImageScaler scaler,
+			BufferedImage expected, BufferedImage actual) {
+		Assert.assertArrayEquals(scaler.getName(),
+				expected.getRGB(0, 0, 110, 55, null, 0, 110),
+				actual.getRGB(0, 0, 110, 55, null, 0, 110));
+	}
+
+	private static void assertColor(ImageScaler scaler, int expected,
+			int actual) {
+		for (int shift = 0; shift < 32; shift += 8) {
+			int difference = ((expected >>> shift) & 0xff)
+					- ((actual >>> shift) & 0xff);
+			Assert.assertTrue(scaler.getName() + ": "
+					+ Integer.toHexString(actual), Math.abs(difference) <= 2);
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.server.FileResource;
+import com.vaadin.server.StreamResource;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+public class ImageStripTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("imagestrip-strip").toFile();
+		ImageTools.setStorageDirectory(new File(directory, "store"));
+	}
+
+	@Test
+	public void addImagesKeepsInsertionOrder() throws IOException {
+		List<FileResource> resources = new ArrayList<FileResource>();
+		for (int i = 1; i <= 6; i++) {
+			resources.add(new FileResource(createImage("image" + i,
+					100 * i, 100)));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+
+		try {
+			ImageStrip strip = new ImageStrip();
+			strip.setExecutor(executor);
+
+			List<ImageStrip.Image> added = strip.addImages(resources);
+
+			Assert.assertEquals(6, added.size());
+			for (int i = 0; i < added.size(); i++) {
+				Assert.assertEquals(i, added.get(i).getImageIndex());
+			}
+
+			// Wider sources give flatter thumbnails
+			Assert.assertEquals(110, added.get(0).getHeight());
+			Assert.assertEquals(18, added.get(5).getHeight());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void asyncImageIsPendingUntilScaled() throws Exception {
+		ImageStrip strip = new ImageStrip();
+
+		CompletableFuture<ImageStrip.Image> future = strip
+				.addImageAsync(new FileResource(createImage("async", 200,
+						100)));
+		ImageStrip.Image image = future.get(10, TimeUnit.SECONDS);
+
+		Assert.assertFalse(image.isPending());
+		Assert.assertEquals(110, image.getWidth());
+		Assert.assertEquals(55, image.getHeight());
+	}
+
+	@Test
+	public void asyncImageFailsForUnreadableSource() throws Exception {
+		ImageStrip strip = new ImageStrip();
+
+		File broken = new File(directory, "broken.png");
+		Files.write(broken.toPath(), new byte[] { 1, 2, 3 });
+
+		try {
+			strip.addImageAsync(new FileResource(broken)).get(10,
+					TimeUnit.SECONDS);
+			Assert.fail("Unreadable image was added");
+		} catch (ExecutionException e) {
+			// Reason of the failure is passed on as is
+			Assert.assertTrue(e.getCause() instanceof ImageToolsException);
+			Assert.assertFalse(e.getCause().getMessage()
+					.startsWith("Unable to read image"));
+		}
+	}
+
+	@Test
+	public void asyncImageFailsWhenUiIsDetached() throws Exception {
+		UI ui = new UI() {
+			@Override
+			protected void init(VaadinRequest request) {
+				// NOP
+			}
+		};
+
+		UI.setCurrent(ui);
+		CompletableFuture<ImageStrip.Image> future;
+		try {
+			future = new ImageStrip().addImageAsync(new FileResource(
+					createImage("detached", 200, 100)));
+		} finally {
+			UI.setCurrent(null);
+		}
+
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			Assert.fail("Image was applied to a detached UI");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof UIDetachedException);
+		}
+	}
+
+	@Test
+	public void rejectedScalingLeavesNothingQueued() throws IOException {
+		ThumbnailMetrics metrics = new ThumbnailMetrics();
+		ImageTools.addListener(metrics);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.shutdown();
+
+		try {
+			ImageStrip strip = new ImageStrip();
+			strip.setExecutor(executor);
+
+			try {
+				strip.addImageAsync(new FileResource(createImage("rejected",
+						200, 100)));
+				Assert.fail("Shut down executor accepted a task");
+			} catch (RejectedExecutionException expected) {
+			}
+
+			Assert.assertEquals(0, metrics.getQueueDepth());
+		} finally {
+			ImageTools.removeListener(metrics);
+		}
+	}
+
+	@Test
+	public void defaultExecutorIsNotCommonPool() {
+		ExecutorService executor = new ImageStrip().getExecutor();
+
+		Assert.assertNotSame(ForkJoinPool.commonPool(), executor);
+		Assert.assertSame(executor, new ImageStrip().getExecutor());
+	}
+
+	@Test
+	public void memoryStoredImagesAreStreamed() throws IOException {
+		ImageTools.setStore(new MemoryThumbnailStore());
+
+		ImageStrip strip = new ImageStrip();
+		ImageStrip.Image image = strip.addImage(new FileResource(createImage(
+				"memory", 200, 100)));
+
+		Assert.assertTrue(image.getResource() instanceof StreamResource);
+
+		InputStream stream = ((StreamResource) image.getResource())
+				.getStreamSource().getStream();
+		try {
+			BufferedImage streamed = ImageIO.read(stream);
+			Assert.assertEquals(110, streamed.getWidth());
+			Assert.assertEquals(55, streamed.getHeight());
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Test
+	public void denserVariantsAreScaledOnRequest() throws IOException {
+		ImageStrip strip = new ImageStrip();
+		strip.setMaxPixelDensity(2);
+
+		ImageStrip.Image image = strip.addImage(new FileResource(createImage(
+				"dense", 400, 200)));
+
+		Assert.assertEquals(110, image.getWidth());
+		Assert.assertNull(image.getResource(3));
+		Assert.assertTrue(image.getResource(2) instanceof StreamResource);
+
+		InputStream stream = ((StreamResource) image.getResource(2))
+				.getStreamSource().getStream();
+		try {
+			BufferedImage streamed = ImageIO.read(stream);
+			Assert.assertEquals(220, streamed.getWidth());
+			Assert.assertEquals(110, streamed.getHeight());
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Test
+	public void smallSourcesAreNotScaledUp() throws IOException {
+		ImageStrip strip = new ImageStrip();
+		strip.setMaxPixelDensity(3);
+
+		ImageStrip.Image small = strip.addImage(new FileResource(createImage(
+				"small", 150, 75)));
+		Assert.assertEquals(110, small.getWidth());
+		Assert.assertNull(small.getResource(2));
+
+		ImageStrip.Image medium = strip.addImage(new FileResource(
+				createImage("medium", 240, 120)));
+		Assert.assertNotNull(medium.getResource(2));
+		Assert.assertNull(medium.getResource(3));
+
+		// Source size is read from the file when thumbnail comes from store
+		ImageTools.clearCache();
+		medium = strip.addImage(new FileResource(new File(directory,
+				"medium.png")));
+		Assert.assertNotNull(medium.getResource(2));
+		Assert.assertNull(medium.getResource(3));
+	}
+
+	@Test
+	public void placeholderColorIsAverageOfThumbnail() throws IOException {
+		File source = new File(directory, "colored.png");
+		BufferedImage colored = new BufferedImage(200, 100,
+				BufferedImage.TYPE_INT_RGB);
+		for (int x = 0; x < 200; x++) {
+			for (int y = 0; y < 100; y++) {
+				colored.setRGB(x, y, x < 100 ? 0x204060 : 0x6080a0);
+			}
+		}
+		ImageIO.write(colored, "png", source);
+
+		ImageStrip strip = new ImageStrip();
+		strip.setImageEncoding(ImageEncoding.PNG);
+
+		ImageStrip.Image image = strip.addImage(new FileResource(source));
+		Assert.assertEquals("#406080", image.getPlaceholderColor());
+
+		// Thumbnails read back from the store are decoded for their color
+		ImageTools.clearCache();
+		image = strip.addImage(new FileResource(source));
+		Assert.assertEquals("#406080", image.getPlaceholderColor());
+	}
+
+	@Test
+	public void windowIsComposedIntoSprite() throws IOException {
+		ImageStrip strip = new ImageStrip();
+		strip.setImageEncoding(ImageEncoding.PNG);
+
+		List<ImageStrip.Image> window = new ArrayList<ImageStrip.Image>();
+		int[] colors = { 0xff0000, 0x00ff00, 0x0000ff };
+		for (int color : colors) {
+			File source = new File(directory, "sprite" + color + ".png");
+			BufferedImage image = new BufferedImage(200, 100,
+					BufferedImage.TYPE_INT_RGB);
+			for (int x = 0; x < 200; x++) {
+				for (int y = 0; y < 100; y++) {
+					image.setRGB(x, y, color);
+				}
+			}
+			ImageIO.write(image, "png", source);
+			window.add(strip.addImage(new FileResource(source)));
+		}
+		// Windows wrap around when there are few images
+		window.add(window.get(0));
+
+		Assert.assertNull(strip.layoutSprite(window));
+		strip.setSpriteTransport(true);
+
+		Map<ImageStrip.Image, Point> offsets = strip.layoutSprite(window);
+		Assert.assertEquals(3, offsets.size());
+		Assert.assertEquals(new Point(110, 0), offsets.get(window.get(1)));
+
+		StreamResource sprite = (StreamResource) strip.createSprite(offsets);
+		InputStream stream = sprite.getStreamSource().getStream();
+		try {
+			BufferedImage decoded = ImageIO.read(stream);
+			Assert.assertEquals(330, decoded.getWidth());
+			Assert.assertEquals(55, decoded.getHeight());
+
+			for (int i = 0; i < colors.length; i++) {
+				Point offset = offsets.get(window.get(i));
+				Assert.assertEquals(colors[i],
+						decoded.getRGB(offset.x + 50, 20) & 0xffffff);
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	private File createImage(String name, int width, int height)
+			throws IOException {
+		File file = new File(directory, name + ".png");
+		ImageIO.write(new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB), "png", file);
+		return file;
+	}
+}
@@ -0,0 +1,456 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ImageToolsTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("imagestrip-tools").toFile();
+		ImageTools.setStorageDirectory(directory);
+		ImageTools.setFetcher(new RemoteImageFetcher());
+	}
+
+	@Test
+	public void resizedImageFitsToGivenBox() throws Exception {
+		File source = createImage(2000, 1000, "png");
+
+		Thumbnail thumbnail = ImageTools.resizeImage(source, 110, 110);
+
+		Assert.assertEquals(110, thumbnail.getWidth());
+		Assert.assertEquals(55, thumbnail.getHeight());
+		Assert.assertEquals(new Dimension(110, 55),
+				ImageTools.getImageDimension(thumbnail.getFile()));
+		Assert.assertEquals(thumbnail.getFile().length(),
+				thumbnail.getByteSize());
+	}
+
+	@Test
+	public void largeImagesAreSubsampledWhileDecoding() {
+		Assert.assertEquals(1,
+				ImageTools.calculateSubsampling(200, 200, 110, 110));
+		Assert.assertEquals(27,
+				ImageTools.calculateSubsampling(4000, 6000, 110, 110));
+		Assert.assertEquals(33,
+				ImageTools.calculateSubsampling(7360, 4912, 110, 110));
+	}
+
+	@Test
+	public void concurrentResizesOfSameSourceAreCoalesced() throws Exception {
+		final byte[] image = Files.readAllBytes(createImage(400, 300, "png")
+				.toPath());
+		final AtomicInteger requests = new AtomicInteger();
+
+		HttpServer server = HttpServer.create(new InetSocketAddress(
+				"localhost", 0), 0);
+		server.createContext("/image.png", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				try {
+					// Keep the request in flight while others arrive
+					Thread.sleep(300);
+				} catch (InterruptedException ignored) {
+					// NOP
+				}
+				exchange.sendResponseHeaders(200, image.length);
+				exchange.getResponseBody().write(image);
+				exchange.close();
+			}
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+
+		ExecutorService clients = Executors.newFixedThreadPool(8);
+
+		try {
+			final String url = "http://localhost:"
+					+ server.getAddress().getPort() + "/image.png";
+			List<Future<Thumbnail>> results = new ArrayList<Future<Thumbnail>>();
+
+			for (int i = 0; i < 8; i++) {
+				results.add(clients.submit(new Callable<Thumbnail>() {
+					@Override
+					public Thumbnail call() throws Exception {
+						return ImageTools.resizeImage(url, 110, 110);
+					}
+				}));
+			}
+
+			for (Future<Thumbnail> result : results) {
+				Assert.assertEquals(110, result.get().getWidth());
+			}
+
+			Assert.assertEquals(1, requests.get());
+		} finally {
+			clients.shutdown();
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void encodingControlsQualityAndAlpha() throws Exception {
+		File source = new File(directory, "logo.png");
+		BufferedImage logo = new BufferedImage(400, 400,
+				BufferedImage.TYPE_INT_ARGB);
+		for (int y = 0; y < 400; y++) {
+			for (int x = 0; x < 400; x++) {
+				// Noise compresses poorly, half of the image is transparent
+				int alpha = x < 200 ? 0 : 0xff;
+				logo.setRGB(x, y, alpha << 24 | (x * 31 + y * 17) % 0xffffff);
+			}
+		}
+		ImageIO.write(logo, "png", source);
+
+		Thumbnail high = ImageTools.resizeImage(source, 110, 110,
+				ImageEncoding.jpeg(0.95f));
+		Thumbnail low = ImageTools.resizeImage(source, 110, 110,
+				ImageEncoding.progressiveJpeg(0.3f));
+		Assert.assertTrue(low.getByteSize() < high.getByteSize());
+
+		Thumbnail png = ImageTools.resizeImage(source, 110, 110,
+				ImageEncoding.PNG);
+		BufferedImage decoded = ImageIO.read(png.getFile());
+		Assert.assertTrue(decoded.getColorModel().hasAlpha());
+		Assert.assertEquals(0, decoded.getRGB(0, 0) >>> 24);
+		Assert.assertEquals(0xff, decoded.getRGB(109, 0) >>> 24);
+	}
+
+	@Test
+	public void unchangedRemoteImageIsRevalidated() throws Exception {
+		final byte[] image = Files.readAllBytes(createImage(400, 300, "png")
+				.toPath());
+		final AtomicInteger downloads = new AtomicInteger();
+		final AtomicInteger revalidations = new AtomicInteger();
+
+		HttpServer server = HttpServer.create(new InetSocketAddress(
+				"localhost", 0), 0);
+		server.createContext("/image.png", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst(
+						"If-None-Match"))) {
+					revalidations.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+				} else {
+					downloads.incrementAndGet();
+					exchange.getResponseHeaders().set("ETag", "\"v1\"");
+					exchange.sendResponseHeaders(200, image.length);
+					exchange.getResponseBody().write(image);
+				}
+				exchange.close();
+			}
+		});
+		server.start();
+
+		try {
+			String url = "http://localhost:" + server.getAddress().getPort()
+					+ "/image.png";
+			ImageTools.getFetcher().setRevalidationInterval(0);
+
+			Thumbnail first = ImageTools.resizeImage(url, 110, 110);
+			Thumbnail second = ImageTools.resizeImage(url, 110, 110);
+
+			Assert.assertSame(first, second);
+			Assert.assertEquals(1, downloads.get());
+			Assert.assertEquals(1, revalidations.get());
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void replacedSourceFileIsScaledAgain() throws Exception {
+		File source = new File(directory, "replaced.png");
+		ImageIO.write(solidImage(400, 300, 0xff0000), "png", source);
+
+		Thumbnail red = ImageTools.resizeImage(source, 110, 110);
+		Assert.assertSame(red, ImageTools.resizeImage(source, 110, 110));
+
+		ImageIO.write(solidImage(400, 300, 0x0000ff), "png", source);
+		source.setLastModified(source.lastModified() + 2000);
+
+		Thumbnail blue = ImageTools.resizeImage(source, 110, 110);
+		Assert.assertNotSame(red, blue);
+		assertRed(ImageIO.read(blue.getFile()), false);
+
+		// After a restart the source is compared to the stored thumbnail
+		ImageTools.clearCache();
+		ImageIO.write(solidImage(400, 300, 0xff0000), "png", source);
+		source.setLastModified(blue.getFile().lastModified() + 2000);
+
+		assertRed(ImageIO.read(ImageTools.resizeImage(source, 110, 110)
+				.getFile()), true);
+	}
+
+	@Test
+	public void replacedSourceIsNoticedAfterRestartOfPackedStore()
+			throws Exception {
+		File source = new File(directory, "packed.png");
+		ImageIO.write(solidImage(400, 300, 0xff0000), "png", source);
+		long modified = source.lastModified();
+
+		File packed = new File(directory, "packed");
+		PackedThumbnailStore store = new PackedThumbnailStore(packed);
+		ImageTools.setStore(store);
+
+		Thumbnail red = ImageTools.resizeImage(source, 110, 110);
+		Assert.assertEquals(source.length(), red.getSourceLength());
+		Assert.assertEquals(modified, red.getSourceModified());
+
+		// Replaced with an older file of the same size while down
+		store.close();
+		ImageTools.setStore(new PackedThumbnailStore(packed));
+		ImageTools.clearCache();
+		ImageIO.write(solidImage(400, 300, 0x0000ff), "png", source);
+		source.setLastModified(modified - 60000);
+
+		Thumbnail blue = ImageTools.resizeImage(source, 110, 110);
+		Assert.assertNotSame(red, blue);
+		assertRed(ImageIO.read(blue.openStream()), false);
+		Assert.assertSame(blue, ImageTools.resizeImage(source, 110, 110));
+	}
+
+	@Test
+	public void invalidateDropsStoredImagesThatAreNotCached()
+			throws Exception {
+		File source = createImage(400, 300, "png");
+		Thumbnail thumbnail = ImageTools.resizeImage(source, 110, 110);
+
+		ImageTools.getCache().clear();
+
+		Assert.assertEquals(1, ImageTools.invalidate(source));
+		Assert.assertFalse(thumbnail.exists());
+		Assert.assertNull(ImageTools.getStore().get(thumbnail.getKey()));
+	}
+
+	@Test
+	public void invalidateDropsScaledImagesOfSource() throws Exception {
+		File source = createImage(400, 300, "png");
+		Thumbnail small = ImageTools.resizeImage(source, 110, 110);
+		Thumbnail large = ImageTools.resizeImage(source, 220, 220);
+
+		Assert.assertEquals(2, ImageTools.invalidate(source));
+		Assert.assertFalse(small.exists());
+		Assert.assertFalse(large.exists());
+		Assert.assertEquals(0, ImageTools.invalidate(source));
+	}
+
+	@Test
+	public void resizeFailsWhenMemoryBudgetIsExhausted() throws Exception {
+		File source = createImage(400, 300, "png");
+		long budget = ImageTools.getMemoryBudget();
+		long timeout = ImageTools.getMemoryBudgetTimeout();
+
+		ImageTools.setMemoryBudget(1024 * 1024);
+		ImageTools.setMemoryBudgetTimeout(0);
+
+		try {
+			MemoryBudget.Reservation other = ImageTools.currentMemoryBudget()
+					.open();
+			other.reserve(1024 * 1024);
+
+			try {
+				ImageTools.resizeImage(source, 110, 110);
+				Assert.fail("Resize should not fit to the budget");
+			} catch (ImageToolsException e) {
+				Assert.assertTrue(e.getMessage().contains("memory budget"));
+			} finally {
+				other.close();
+			}
+
+			Assert.assertEquals(110, ImageTools.resizeImage(source, 110, 110)
+					.getWidth());
+			Assert.assertEquals(1024 * 1024, ImageTools.currentMemoryBudget()
+					.getAvailableBytes());
+		} finally {
+			ImageTools.setMemoryBudget(budget);
+			ImageTools.setMemoryBudgetTimeout(timeout);
+		}
+	}
+
+	@Test
+	public void embeddedThumbnailIsUsedWhenLargeEnough() throws Exception {
+		BufferedImage embedded = solidImage(160, 120, 0xff0000);
+
+		// JFIF thumbnail, read through the thumbnail API of the reader
+		File jfif = new File(directory, "jfif.jpg");
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg")
+				.next();
+		try (ImageOutputStream output = ImageIO.createImageOutputStream(jfif)) {
+			writer.setOutput(output);
+			writer.write(new IIOImage(solidImage(1600, 1200, 0x0000ff),
+					Collections.singletonList(embedded), null));
+		} finally {
+			writer.dispose();
+		}
+
+		// EXIF thumbnail in an APP1 segment after the JFIF segment
+		ByteArrayOutputStream main = new ByteArrayOutputStream();
+		ImageIO.write(solidImage(1600, 1200, 0x0000ff), "jpg", main);
+		ByteArrayOutputStream thumbnail = new ByteArrayOutputStream();
+		ImageIO.write(embedded, "jpg", thumbnail);
+
+		File exif = new File(directory, "exif.jpg");
+		Files.write(exif.toPath(), insertExifThumbnail(main.toByteArray(),
+				thumbnail.toByteArray()));
+
+		ImageTools.setEmbeddedThumbnails(true);
+
+		try {
+			for (File source : new File[] { jfif, exif }) {
+				Thumbnail small = ImageTools.resizeImage(source, 110, 110);
+				Assert.assertEquals(110, small.getWidth());
+				assertRed(ImageIO.read(small.getFile()), true);
+
+				// Embedded thumbnail is too small for the box
+				Thumbnail large = ImageTools.resizeImage(source, 330, 330);
+				Assert.assertEquals(330, large.getWidth());
+				assertRed(ImageIO.read(large.getFile()), false);
+			}
+
+			// Decoding an embedded thumbnail is counted against the budget
+			long budget = ImageTools.getMemoryBudget();
+			long timeout = ImageTools.getMemoryBudgetTimeout();
+			ImageTools.setMemoryBudget(1024 * 1024);
+			ImageTools.setMemoryBudgetTimeout(0);
+
+			try (MemoryBudget.Reservation other = ImageTools
+					.currentMemoryBudget().open()) {
+				other.reserve(1024 * 1024);
+
+				ImageTools.resizeImage(exif, 100, 100);
+				Assert.fail("Embedded thumbnail should not fit to the budget");
+			} catch (ImageToolsException e) {
+				Assert.assertTrue(e.getMessage().contains("memory budget"));
+			} finally {
+				ImageTools.setMemoryBudget(budget);
+				ImageTools.setMemoryBudgetTimeout(timeout);
+			}
+		} finally {
+			ImageTools.setEmbeddedThumbnails(false);
+		}
+	}
+
+	@Test
+	public void malformedExifThumbnailIsIgnored() throws Exception {
+		ByteArrayOutputStream main = new ByteArrayOutputStream();
+		ImageIO.write(solidImage(400, 300, 0x0000ff), "jpg", main);
+
+		// Offset and length of the thumbnail overflow when added up
+		File exif = new File(directory, "malformed.jpg");
+		Files.write(exif.toPath(), insertExifThumbnail(main.toByteArray(),
+				new byte[16], 44, Integer.MAX_VALUE - 16));
+
+		try (ImageInputStream input = ImageIO.createImageInputStream(exif)) {
+			Assert.assertNull(ExifThumbnailReader.read(input));
+		}
+
+		ImageTools.setEmbeddedThumbnails(true);
+
+		try {
+			Thumbnail thumbnail = ImageTools.resizeImage(exif, 110, 110);
+			Assert.assertEquals(110, thumbnail.getWidth());
+			assertRed(ImageIO.read(thumbnail.getFile()), false);
+		} finally {
+			ImageTools.setEmbeddedThumbnails(false);
+		}
+	}
+
+	private static BufferedImage solidImage(int width, int height, int color) {
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				image.setRGB(x, y, color);
+			}
+		}
+		return image;
+	}
+
+	private static void assertRed(BufferedImage image, boolean red) {
+		int pixel = image.getRGB(image.getWidth() / 2, image.getHeight() / 2);
+		Assert.assertEquals(red, ((pixel >> 16) & 0xff) > 0x80);
+	}
+
+	/**
+	 * Builds a big endian EXIF segment with an empty IFD0 and an IFD1 that
+	 * points to given thumbnail, and inserts it after the JFIF segment
+	 */
+
+	private static byte[] insertExifThumbnail(byte[] jpeg, byte[] thumbnail) {
+		return insertExifThumbnail(jpeg, thumbnail, 44, thumbnail.length);
+	}
+
+	/**
+	 * Builds the EXIF segment with given offset and length of the thumbnail
+	 * in IFD1, which need not match the thumbnail
+	 */
+
+	private static byte[] insertExifThumbnail(byte[] jpeg, byte[] thumbnail,
+			int offset, int length) {
+		ByteBuffer tiff = ByteBuffer.allocate(44 + thumbnail.length);
+		tiff.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+		// IFD0 without entries, followed by IFD1
+		tiff.putShort((short) 0).putInt(14);
+		tiff.putShort((short) 2);
+		tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1)
+				.putInt(offset);
+		tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1)
+				.putInt(length);
+		tiff.putInt(0);
+		tiff.put(thumbnail);
+
+		int app0Length = ((jpeg[4] & 0xff) << 8) | (jpeg[5] & 0xff);
+		int insertAt = 4 + app0Length;
+
+		ByteBuffer result = ByteBuffer.allocate(jpeg.length + 10
+				+ tiff.capacity());
+		result.put(jpeg, 0, insertAt);
+		result.putShort((short) 0xffe1).putShort(
+				(short) (2 + 6 + tiff.capacity()));
+		result.put(new byte[] { 'E', 'x', 'i', 'f', 0, 0 });
+		result.put(tiff.array());
+		result.put(jpeg, insertAt, jpeg.length - insertAt);
+		return result.array();
+	}
+
+	private File createImage(int width, int height, String format)
+			throws IOException {
+		File file = new File(directory, "source." + format);
+		ImageIO.write(new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB), format, file);
+		return file;
+	}
+}
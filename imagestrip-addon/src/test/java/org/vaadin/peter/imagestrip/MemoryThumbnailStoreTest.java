@@ -0,0 +1,67 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MemoryThumbnailStoreTest {
+
+	@Test
+	public void storedThumbnailIsReadFromMemory() throws IOException {
+		MemoryThumbnailStore store = new MemoryThumbnailStore();
+		ThumbnailKey key = new ThumbnailKey("source", 110, 110, "png");
+
+		Thumbnail thumbnail = store.put(key, new BufferedImage(20, 10,
+				BufferedImage.TYPE_INT_RGB));
+
+		Assert.assertNull(thumbnail.getFile());
+		Assert.assertTrue(thumbnail.exists());
+		Assert.assertSame(thumbnail, store.get(key));
+		Assert.assertEquals(thumbnail.getByteSize(), read(thumbnail).length);
+		Assert.assertEquals(thumbnail.getByteSize(), store.getTotalBytes());
+
+		store.remove(thumbnail);
+
+		Assert.assertFalse(thumbnail.exists());
+		Assert.assertEquals(0, store.getTotalBytes());
+	}
+
+	@Test
+	public void storeIsBoundedByTotalBytes() throws IOException {
+		BufferedImage image = new BufferedImage(20, 10,
+				BufferedImage.TYPE_INT_RGB);
+		long size = new MemoryThumbnailStore().put(
+				new ThumbnailKey("size", 110, 110, "png"), image)
+				.getByteSize();
+
+		MemoryThumbnailStore store = new MemoryThumbnailStore(size * 2);
+		Thumbnail first = store.put(new ThumbnailKey("first", 110, 110,
+				"png"), image);
+		store.put(new ThumbnailKey("second", 110, 110, "png"), image);
+		store.put(new ThumbnailKey("third", 110, 110, "png"), image);
+
+		Assert.assertEquals(2, store.size());
+		Assert.assertFalse(first.exists());
+	}
+
+	private static byte[] read(Thumbnail thumbnail) throws IOException {
+		InputStream input = thumbnail.openStream();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		try {
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				output.write(buffer, 0, read);
+			}
+		} finally {
+			input.close();
+		}
+
+		return output.toByteArray();
+	}
+}
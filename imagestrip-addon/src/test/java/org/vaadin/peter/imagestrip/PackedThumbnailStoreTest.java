@@ -0,0 +1,208 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PackedThumbnailStoreTest {
+
+	@Test
+	public void storedImageIsFoundAfterRestart() throws IOException {
+		File directory = Files.createTempDirectory("imagestrip-packed")
+				.toFile();
+		ThumbnailKey key = new ThumbnailKey("http://example.com/a.jpg", 110,
+				110, "png");
+
+		PackedThumbnailStore store = new PackedThumbnailStore(directory);
+		Assert.assertNull(store.get(key));
+
+		Thumbnail stored = store.put(key, new BufferedImage(20, 10,
+				BufferedImage.TYPE_INT_RGB));
+		Assert.assertNull(stored.getFile());
+		Assert.assertTrue(store.contains(stored));
+		assertReadable(stored, 20, 10);
+		store.close();
+
+		// A new store over the same directory rebuilds its index
+		PackedThumbnailStore restarted = new PackedThumbnailStore(directory);
+		try {
+			Thumbnail found = restarted.get(key);
+			Assert.assertEquals(20, found.getWidth());
+			Assert.assertEquals(10, found.getHeight());
+			Assert.assertEquals(stored.getByteSize(), found.getByteSize());
+			Assert.assertTrue(found.exists());
+			assertReadable(found, 20, 10);
+
+			ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+			restarted.transferTo(found, Channels.newChannel(transferred));
+			Assert.assertEquals(found.getByteSize(), transferred.size());
+		} finally {
+			restarted.close();
+		}
+	}
+
+	@Test
+	public void removedImageStaysRemovedAfterRestart() throws IOException {
+		File directory = Files.createTempDirectory("imagestrip-packed")
+				.toFile();
+		ThumbnailKey removed = new ThumbnailKey("removed", 110, 110, "png");
+		ThumbnailKey kept = new ThumbnailKey("kept", 110, 110, "png");
+
+		// Segments this small hold a single record each
+		PackedThumbnailStore store = new PackedThumbnailStore(directory, 64);
+		Thumbnail thumbnail = store.put(removed, new BufferedImage(20, 10,
+				BufferedImage.TYPE_INT_RGB));
+		store.put(kept, new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB));
+		Assert.assertEquals(2, store.getSegmentCount());
+
+		store.remove(thumbnail);
+		Assert.assertFalse(thumbnail.exists());
+		Assert.assertNull(store.get(removed));
+		store.close();
+
+		PackedThumbnailStore restarted = new PackedThumbnailStore(directory,
+				64);
+		try {
+			Assert.assertNull(restarted.get(removed));
+			Assert.assertNotNull(restarted.get(kept));
+			Assert.assertEquals(1, restarted.size());
+		} finally {
+			restarted.close();
+		}
+	}
+
+	@Test
+	public void compactionReclaimsRemovedImages() throws IOException {
+		File directory = Files.createTempDirectory("imagestrip-packed")
+				.toFile();
+		PackedThumbnailStore store = new PackedThumbnailStore(directory, 512);
+
+		List<Thumbnail> thumbnails = new ArrayList<Thumbnail>();
+		for (int i = 0; i < 12; i++) {
+			thumbnails.add(store.put(new ThumbnailKey("image" + i, 110, 110,
+					"png"), new BufferedImage(20, 10,
+					BufferedImage.TYPE_INT_RGB)));
+		}
+		int segments = store.getSegmentCount();
+		Assert.assertTrue(segments > 2);
+
+		for (int i = 0; i < 10; i++) {
+			store.remove(thumbnails.get(i));
+		}
+		long before = store.getSegmentBytes();
+
+		Assert.assertTrue(store.compact() > 0);
+		Assert.assertTrue(store.getSegmentCount() < segments);
+		Assert.assertTrue(store.getSegmentBytes() < before);
+
+		// Moved thumbnails are still the ones handed out
+		Thumbnail kept = thumbnails.get(11);
+		Assert.assertTrue(store.contains(kept));
+		Assert.assertSame(kept, store.get(kept.getKey()));
+		assertReadable(kept, 20, 10);
+		store.close();
+
+		PackedThumbnailStore restarted = new PackedThumbnailStore(directory,
+				512);
+		try {
+			Assert.assertEquals(2, restarted.size());
+			Assert.assertNull(restarted.get(thumbnails.get(0).getKey()));
+			assertReadable(restarted.get(kept.getKey()), 20, 10);
+
+			// New segments do not reuse the names of deleted ones
+			restarted.put(new ThumbnailKey("new", 110, 110, "png"),
+					new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB));
+			Assert.assertEquals(3, restarted.size());
+		} finally {
+			restarted.close();
+		}
+	}
+
+	@Test
+	public void compactionWaitsForTransfersFromSegment() throws IOException {
+		BufferedImage image = new BufferedImage(20, 10,
+				BufferedImage.TYPE_INT_RGB);
+
+		PackedThumbnailStore probe = new PackedThumbnailStore(Files
+				.createTempDirectory("imagestrip-packed").toFile());
+		probe.put(new ThumbnailKey("probe", 110, 110, "png"), image);
+		long record = probe.getSegmentBytes();
+		probe.close();
+
+		// First segment holds three records, tombstones start the next one
+		File directory = Files.createTempDirectory("imagestrip-packed")
+				.toFile();
+		final PackedThumbnailStore store = new PackedThumbnailStore(
+				directory, 3 * record);
+		Thumbnail kept = store.put(new ThumbnailKey("kept", 110, 110, "png"),
+				image);
+		Thumbnail first = store.put(new ThumbnailKey("first", 110, 110,
+				"png"), image);
+		Thumbnail second = store.put(new ThumbnailKey("second", 110, 110,
+				"png"), image);
+		store.remove(first);
+		store.remove(second);
+
+		// Compacts the segment in the middle of the transfer
+		final AtomicInteger compacted = new AtomicInteger(-1);
+		final ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+
+		try {
+			store.transferTo(kept, new WritableByteChannel() {
+				@Override
+				public int write(ByteBuffer source) throws IOException {
+					if (compacted.get() < 0) {
+						compacted.set(store.compact());
+					}
+
+					transferred.write(source.get());
+					return 1;
+				}
+
+				@Override
+				public boolean isOpen() {
+					return true;
+				}
+
+				@Override
+				public void close() {
+					// NOP
+				}
+			});
+
+			Assert.assertEquals(1, compacted.get());
+			Assert.assertEquals(kept.getByteSize(), transferred.size());
+			Assert.assertEquals(store.getSegmentCount(),
+					directory.listFiles().length);
+			assertReadable(kept, 20, 10);
+		} finally {
+			store.close();
+		}
+	}
+
+	private static void assertReadable(Thumbnail thumbnail, int width,
+			int height) throws IOException {
+		InputStream stream = thumbnail.openStream();
+		try {
+			BufferedImage image = ImageIO.read(stream);
+			Assert.assertEquals(width, image.getWidth());
+			Assert.assertEquals(height, image.getHeight());
+		} finally {
+			stream.close();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package org.vaadin.peter.imagestrip;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class RemoteImageFetcherTest {
+
+	private static final byte[] BODY = new byte[1000];
+
+	private HttpServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/image", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst(
+						"If-None-Match"))) {
+					exchange.sendResponseHeaders(304, -1);
+				} else {
+					exchange.getResponseHeaders().set("ETag", "\"v1\"");
+					exchange.sendResponseHeaders(200, BODY.length);
+					exchange.getResponseBody().write(BODY);
+				}
+				exchange.close();
+			}
+		});
+		server.createContext("/slow", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					Thread.sleep(2000);
+				} catch (InterruptedException ignored) {
+					// NOP
+				}
+				exchange.sendResponseHeaders(200, BODY.length);
+				exchange.getResponseBody().write(BODY);
+				exchange.close();
+			}
+		});
+		server.createContext("/trickle", trickle(200));
+		server.createContext("/trickle-error", trickle(500));
+		server.start();
+	}
+
+	/**
+	 * @return handler that sends a few bytes of body every 100 ms for five
+	 *         seconds
+	 */
+
+	private static HttpHandler trickle(final int status) {
+		return new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(status, 0);
+				try {
+					for (int i = 0; i < 50; i++) {
+						exchange.getResponseBody().write(BODY, 0, 10);
+						exchange.getResponseBody().flush();
+						Thread.sleep(100);
+					}
+				} catch (InterruptedException | IOException ignored) {
+					// Client gave up
+				}
+				exchange.close();
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void unchangedImageIsNotDownloadedAgain() throws IOException {
+		RemoteImageFetcher fetcher = new RemoteImageFetcher();
+
+		RemoteImageFetcher.Response first = fetcher.fetch(url("/image"), null,
+				null);
+		Assert.assertFalse(first.isNotModified());
+		Assert.assertEquals(BODY.length, first.getData().length);
+		Assert.assertEquals("\"v1\"", first.getETag());
+
+		RemoteImageFetcher.Response second = fetcher.fetch(url("/image"),
+				first.getETag(), first.getLastModified());
+		Assert.assertTrue(second.isNotModified());
+		Assert.assertNull(second.getData());
+		Assert.assertEquals("\"v1\"", second.getETag());
+	}
+
+	@Test(expected = IOException.class)
+	public void imageLargerThanLimitIsRefused() throws IOException {
+		RemoteImageFetcher fetcher = new RemoteImageFetcher();
+		fetcher.setMaxBytes(BODY.length - 1);
+
+		fetcher.fetch(url("/image"), null, null);
+	}
+
+	@Test(expected = SocketTimeoutException.class)
+	public void slowServerTimesOut() throws IOException {
+		RemoteImageFetcher fetcher = new RemoteImageFetcher();
+		fetcher.setReadTimeout(200);
+
+		fetcher.fetch(url("/slow"), null, null);
+	}
+
+	@Test
+	public void tricklingServerHitsDownloadTimeout() throws IOException {
+		RemoteImageFetcher fetcher = new RemoteImageFetcher();
+		fetcher.setReadTimeout(1000);
+		fetcher.setDownloadTimeout(500);
+
+		try {
+			fetcher.fetch(url("/trickle"), null, null);
+			Assert.fail("Download did not time out");
+		} catch (SocketTimeoutException e) {
+			Assert.fail("Every read was within the read timeout");
+		} catch (IOException expected) {
+			Assert.assertTrue(expected.getMessage().contains("took longer"));
+		}
+	}
+
+	@Test
+	public void tricklingErrorBodyHitsDownloadTimeout() {
+		RemoteImageFetcher fetcher = new RemoteImageFetcher();
+		fetcher.setReadTimeout(1000);
+		fetcher.setDownloadTimeout(500);
+
+		long start = System.currentTimeMillis();
+
+		try {
+			fetcher.fetch(url("/trickle-error"), null, null);
+			Assert.fail("Error response was not reported");
+		} catch (IOException expected) {
+			Assert.assertTrue(expected.getMessage().contains("500"));
+		}
+
+		Assert.assertTrue(System.currentTimeMillis() - start < 3000);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void limitLargerThanArrayIsRejected() {
+		new RemoteImageFetcher().setMaxBytes(4L * 1024 * 1024 * 1024);
+	}
+
+	private String url(String path) {
+		return "http://localhost:" + server.getAddress().getPort() + path;
+	}
+}
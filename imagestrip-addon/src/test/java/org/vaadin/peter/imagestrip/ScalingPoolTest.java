@@ -0,0 +1,73 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ScalingPoolTest {
+
+	@Test
+	public void recycledImagesAreReused() {
+		ScalingPool pool = new ScalingPool();
+
+		BufferedImage image = pool.takeImage(110, 55, false);
+		pool.recycleImage(image);
+
+		Assert.assertNotSame(image, pool.takeImage(110, 55, true));
+		Assert.assertSame(image, pool.takeImage(110, 55, false));
+
+		// Images created elsewhere may still be in use
+		pool.recycleImage(new BufferedImage(110, 55,
+				BufferedImage.TYPE_INT_RGB));
+		Assert.assertEquals(0, pool.getPooledImages());
+
+		// Large images are left to the garbage collector
+		pool.recycleImage(pool.takeImage(4000, 3000, false));
+		Assert.assertEquals(0, pool.getPooledImages());
+	}
+
+	@Test
+	public void readersAndWritersAreReused() throws Exception {
+		ScalingPool pool = new ScalingPool();
+
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageWriter writer = pool.takeWriter("png");
+		pool.releaseWriter("png", writer);
+		Assert.assertSame(writer, pool.takeWriter("png"));
+		ImageTools.encodeImage(new BufferedImage(20, 10,
+				BufferedImage.TYPE_INT_RGB), ImageEncoding.PNG, png);
+
+		ImageReader first = read(pool, png.toByteArray());
+		ImageReader second = read(pool, png.toByteArray());
+		Assert.assertSame(first, second);
+
+		Assert.assertNull(pool.takeReader(new MemoryCacheImageInputStream(
+				new ByteArrayInputStream(new byte[] { 1, 2, 3 }))));
+	}
+
+	private static ImageReader read(ScalingPool pool, byte[] data)
+			throws Exception {
+		try (ImageInputStream input = ImageIO
+				.createImageInputStream(new ByteArrayInputStream(data))) {
+			ImageReader reader = pool.takeReader(input);
+
+			try {
+				reader.setInput(input, true, true);
+				Assert.assertEquals(20, reader.read(0).getWidth());
+			} finally {
+				pool.releaseReader(reader);
+			}
+
+			return reader;
+		}
+	}
+}
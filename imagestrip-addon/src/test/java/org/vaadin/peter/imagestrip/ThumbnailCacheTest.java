@@ -0,0 +1,115 @@
+package org.vaadin.peter.imagestrip;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ThumbnailCacheTest {
+
+	@Test
+	public void leastRecentlyUsedEntryIsEvicted() throws IOException {
+		ThumbnailCache cache = new ThumbnailCache(2, Long.MAX_VALUE);
+
+		Thumbnail first = thumbnail(key("first"), 10);
+		Thumbnail second = thumbnail(key("second"), 10);
+		Thumbnail third = thumbnail(key("third"), 10);
+
+		cache.put(first);
+		cache.put(second);
+
+		// Touch first so that second becomes the eldest entry
+		Assert.assertEquals(first, cache.get(key("first")));
+
+		cache.put(third);
+
+		Assert.assertEquals(2, cache.size());
+		Assert.assertNull(cache.get(key("second")));
+		// Persistent store keeps the file for later lookups
+		Assert.assertTrue(second.getFile().exists());
+		Assert.assertEquals(first, cache.get(key("first")));
+		Assert.assertEquals(third, cache.get(key("third")));
+	}
+
+	@Test
+	public void evictedEntryIsRemovedFromMemoryStore() throws IOException {
+		ThumbnailCache cache = new ThumbnailCache(1, Long.MAX_VALUE);
+		MemoryThumbnailStore store = new MemoryThumbnailStore();
+
+		Thumbnail first = store.put(key("first"), new byte[10], 110, 110);
+		cache.put(first);
+		cache.put(store.put(key("second"), new byte[10], 110, 110));
+
+		Assert.assertNull(cache.get(key("first")));
+		Assert.assertFalse(first.exists());
+	}
+
+	@Test
+	public void cacheIsBoundedByTotalBytes() throws IOException {
+		ThumbnailCache cache = new ThumbnailCache(100, 25);
+
+		cache.put(thumbnail(key("first"), 10));
+		cache.put(thumbnail(key("second"), 10));
+		cache.put(thumbnail(key("third"), 10));
+
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(20, cache.getTotalBytes());
+		Assert.assertNull(cache.get(key("first")));
+	}
+
+	@Test
+	public void removedFileIsNotReturned() throws IOException {
+		ThumbnailCache cache = new ThumbnailCache();
+
+		Thumbnail thumbnail = thumbnail(key("file"), 10);
+		cache.put(thumbnail);
+		thumbnail.getFile().delete();
+
+		Assert.assertNull(cache.get(key("file")));
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(0, cache.getTotalBytes());
+	}
+
+	@Test
+	public void sizesOfSameSourceAreCachedSeparately() throws IOException {
+		ThumbnailCache cache = new ThumbnailCache();
+
+		Thumbnail small = thumbnail(new ThumbnailKey("source", 110, 110,
+				"jpg"), 10);
+		Thumbnail large = thumbnail(new ThumbnailKey("source", 220, 220,
+				"jpg"), 20);
+
+		cache.put(small);
+		cache.put(large);
+
+		Assert.assertEquals(small,
+				cache.get(new ThumbnailKey("source", 110, 110, "jpg")));
+		Assert.assertEquals(large,
+				cache.get(new ThumbnailKey("source", 220, 220, "jpg")));
+		Assert.assertNull(cache.get(new ThumbnailKey("source", 110, 110,
+				"png")));
+	}
+
+	private static ThumbnailKey key(String source) {
+		return new ThumbnailKey(source, 110, 110, "jpg");
+	}
+
+	private static Thumbnail thumbnail(ThumbnailKey key, int size)
+			throws IOException {
+		File file = File.createTempFile("imagestrip-test", "");
+		file.deleteOnExit();
+
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(new byte[size]);
+		} finally {
+			output.close();
+		}
+
+		return new Thumbnail(new DirectoryThumbnailStore(
+				file.getParentFile()), key, file, key.getMaxWidth(),
+				key.getMaxHeight(), size);
+	}
+}
@@ -0,0 +1,68 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThumbnailInvalidatorTest {
+
+	private File sources;
+	private ThumbnailInvalidator invalidator;
+
+	@Before
+	public void setUp() throws IOException {
+		sources = Files.createTempDirectory("imagestrip-sources").toFile();
+		ImageTools.setStorageDirectory(Files.createTempDirectory(
+				"imagestrip-invalidator").toFile());
+		invalidator = new ThumbnailInvalidator();
+	}
+
+	@After
+	public void tearDown() {
+		invalidator.stop();
+	}
+
+	@Test
+	public void modifiedSourceIsDroppedFromCache() throws Exception {
+		File source = new File(sources, "image.png");
+		ImageIO.write(new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB),
+				"png", source);
+
+		invalidator.addDirectory(sources);
+		invalidator.start();
+		Assert.assertTrue(invalidator.isRunning());
+
+		Thumbnail thumbnail = ImageTools.resizeImage(source, 110, 110);
+		Assert.assertTrue(ImageTools.getCache().getThumbnails()
+				.contains(thumbnail));
+
+		ImageIO.write(new BufferedImage(300, 300, BufferedImage.TYPE_INT_RGB),
+				"png", source);
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (thumbnail.exists() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+
+		Assert.assertFalse(thumbnail.exists());
+		Assert.assertFalse(ImageTools.getCache().getThumbnails()
+				.contains(thumbnail));
+		Assert.assertEquals(1, invalidator.getInvalidated());
+
+		invalidator.stop();
+		Assert.assertFalse(invalidator.isRunning());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void missingDirectoryIsRejected() throws IOException {
+		invalidator.addDirectory(new File(sources, "missing"));
+	}
+}
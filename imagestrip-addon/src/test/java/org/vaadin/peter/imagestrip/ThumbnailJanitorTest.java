@@ -0,0 +1,178 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThumbnailJanitorTest {
+
+	private static final long HOUR = 60L * 60 * 1000;
+
+	private DirectoryThumbnailStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		store = new DirectoryThumbnailStore(Files.createTempDirectory(
+				"imagestrip-janitor").toFile());
+		ImageTools.setStore(store);
+	}
+
+	@Test
+	public void leftoverAndExpiredFilesAreDeleted() throws IOException {
+		long now = System.currentTimeMillis();
+
+		File partial = partial("leftover", 10, now - 2 * HOUR);
+		File writing = partial("writing", 10, now);
+		File expired = thumbnail("expired", 10, now - 10 * 24 * HOUR);
+		File fresh = thumbnail("fresh", 10, now);
+		File unrelated = file("notes.txt", 10, now - 10 * 24 * HOUR);
+
+		ThumbnailJanitor janitor = new ThumbnailJanitor(store);
+		ThumbnailJanitor.Usage usage = janitor.sweep();
+
+		Assert.assertFalse(partial.exists());
+		Assert.assertTrue(writing.exists());
+		Assert.assertFalse(expired.exists());
+		Assert.assertTrue(fresh.exists());
+
+		// Files the store did not write are left alone and not counted
+		Assert.assertTrue(unrelated.exists());
+
+		Assert.assertEquals(2, usage.getFileCount());
+		Assert.assertEquals(20, usage.getTotalBytes());
+		Assert.assertEquals(2, usage.getDeletedFiles());
+		Assert.assertSame(usage, janitor.getUsage());
+	}
+
+	@Test
+	public void oldestUnusedFilesAreDeletedForQuota() throws IOException {
+		ThumbnailKey key = new ThumbnailKey("cached", 110, 110, "jpg");
+		Thumbnail cached = store.put(key, new BufferedImage(20, 10,
+				BufferedImage.TYPE_INT_RGB));
+		ImageTools.getCache().put(cached);
+
+		long now = System.currentTimeMillis();
+		setTimes(cached.getFile(), now - 3 * HOUR);
+		File oldest = thumbnail("oldest", 100, now - 2 * HOUR);
+		File newest = thumbnail("newest", 100, now - HOUR);
+
+		ThumbnailJanitor janitor = new ThumbnailJanitor(store);
+		janitor.setMaxBytes(cached.getByteSize() + 150);
+		ThumbnailJanitor.Usage usage = janitor.sweep();
+
+		// Cached thumbnail is oldest but still in use
+		Assert.assertTrue(cached.getFile().exists());
+		Assert.assertFalse(oldest.exists());
+		Assert.assertTrue(newest.exists());
+		Assert.assertEquals(cached.getByteSize() + 100,
+				usage.getTotalBytes());
+	}
+
+	@Test
+	public void unusedPackedImagesAreRemovedAndCompacted() throws IOException {
+		PackedThumbnailStore packed = new PackedThumbnailStore(Files
+				.createTempDirectory("imagestrip-janitor").toFile(), 512);
+		ImageTools.setStore(packed);
+
+		try {
+			ThumbnailKey cachedKey = new ThumbnailKey("cached", 110, 110,
+					"png");
+			Thumbnail cached = packed.put(cachedKey, new BufferedImage(20,
+					10, BufferedImage.TYPE_INT_RGB));
+			ImageTools.getCache().put(cached);
+
+			for (int i = 0; i < 12; i++) {
+				packed.put(new ThumbnailKey("unused" + i, 110, 110, "png"),
+						new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB));
+			}
+			long before = packed.getSegmentBytes();
+
+			ThumbnailJanitor janitor = new ThumbnailJanitor(packed);
+			janitor.setMaxAge(0);
+			Thread.sleep(5);
+			ThumbnailJanitor.Usage usage = janitor.sweep();
+
+			Assert.assertEquals(1, usage.getFileCount());
+			Assert.assertEquals(12, usage.getDeletedFiles());
+			Assert.assertTrue(packed.contains(cached));
+			Assert.assertTrue(packed.getSegmentBytes() < before);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			packed.close();
+		}
+	}
+
+	@Test
+	public void recentlyLookedUpFilesAreKept() throws IOException {
+		ThumbnailKey key = new ThumbnailKey("looked-up", 110, 110, "jpg");
+		File file = store.put(key, new BufferedImage(20, 10,
+				BufferedImage.TYPE_INT_RGB)).getFile();
+
+		long written = System.currentTimeMillis() - 10 * 24 * HOUR;
+		setTimes(file, written);
+
+		// Thumbnail is looked up from the store after a restart
+		Assert.assertNotNull(store.get(key));
+		new ThumbnailJanitor(store).sweep();
+
+		Assert.assertTrue(file.exists());
+	}
+
+	@Test
+	public void firstPeriodicSweepWaitsForPeriod() throws Exception {
+		thumbnail("expired", 10, System.currentTimeMillis() - 10 * 24 * HOUR);
+
+		ThumbnailJanitor janitor = new ThumbnailJanitor(store);
+		janitor.start(1, TimeUnit.HOURS);
+		try {
+			Thread.sleep(200);
+			Assert.assertNull(janitor.getUsage());
+		} finally {
+			janitor.stop();
+		}
+	}
+
+	/**
+	 * Writes a file named like the store names thumbnails of given source
+	 */
+
+	private File thumbnail(String source, int size, long lastUsed)
+			throws IOException {
+		return file(store.fileName(new ThumbnailKey(source, 110, 110, "jpg")),
+				size, lastUsed);
+	}
+
+	/**
+	 * Writes a file named like the store names partial thumbnails
+	 */
+
+	private File partial(String source, int size, long lastUsed)
+			throws IOException {
+		return file(store.fileName(new ThumbnailKey(source, 110, 110, "jpg"))
+				+ "42" + DirectoryThumbnailStore.PARTIAL_SUFFIX, size, lastUsed);
+	}
+
+	private File file(String name, int size, long lastUsed)
+			throws IOException {
+		File file = new File(store.getDirectory(), name);
+		Files.write(file.toPath(), new byte[size]);
+		setTimes(file, lastUsed);
+		return file;
+	}
+
+	private static void setTimes(File file, long time) throws IOException {
+		FileTime fileTime = FileTime.fromMillis(time);
+		Files.getFileAttributeView(file.toPath(),
+				BasicFileAttributeView.class).setTimes(fileTime, fileTime,
+				null);
+	}
+}
@@ -0,0 +1,87 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.vaadin.peter.imagestrip.ThumbnailListener.Stage;
+
+public class ThumbnailMetricsTest {
+
+	private File directory;
+	private ThumbnailMetrics metrics;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("imagestrip-metrics").toFile();
+		ImageTools.setStorageDirectory(directory);
+
+		metrics = new ThumbnailMetrics();
+		ImageTools.addListener(metrics);
+	}
+
+	@After
+	public void tearDown() {
+		ImageTools.removeListener(metrics);
+	}
+
+	@Test
+	public void hitsMissesAndStagesAreCounted() throws Exception {
+		File source = createImage(400, 200);
+
+		Thumbnail thumbnail = ImageTools.resizeImage(source, 110, 110);
+		ImageTools.resizeImage(source, 110, 110);
+
+		Assert.assertEquals(1, metrics.getCacheHits());
+		Assert.assertEquals(1, metrics.getCacheMisses());
+		Assert.assertEquals(0.5, metrics.getCacheHitRatio(), 0.0);
+		Assert.assertEquals(source.length(), metrics.getBytesIn());
+		Assert.assertEquals(thumbnail.getByteSize(), metrics.getBytesOut());
+
+		Assert.assertEquals(0, metrics.getLatency(Stage.FETCH).getCount());
+		Assert.assertEquals(1, metrics.getLatency(Stage.DECODE).getCount());
+		Assert.assertEquals(1, metrics.getLatency(Stage.SCALE).getCount());
+		Assert.assertEquals(1, metrics.getLatency(Stage.ENCODE).getCount());
+		Assert.assertEquals(1, metrics.getLatency(Stage.WRITE).getCount());
+		Assert.assertEquals(2, metrics.getLatency(Stage.RESIZE).getCount());
+
+		metrics.reset();
+		Assert.assertEquals(0, metrics.getCacheHits());
+		Assert.assertEquals(0, metrics.getLatency(Stage.RESIZE).getCount());
+	}
+
+	@Test
+	public void installedMetricsAreReadableThroughJmx() throws Exception {
+		ThumbnailMetrics installed = ThumbnailMetrics.install();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(ThumbnailMetrics.OBJECT_NAME);
+
+		try {
+			ImageTools.resizeImage(createImage(300, 300), 110, 110);
+
+			Assert.assertEquals(1L, server.getAttribute(name, "CacheMisses"));
+			Assert.assertNotNull(server.getAttribute(name, "StageLatencies"));
+		} finally {
+			installed.uninstall();
+		}
+
+		Assert.assertFalse(server.isRegistered(name));
+	}
+
+	private File createImage(int width, int height) throws IOException {
+		File file = File.createTempFile("source", ".png", directory);
+		ImageIO.write(new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB), "png", file);
+		return file;
+	}
+}
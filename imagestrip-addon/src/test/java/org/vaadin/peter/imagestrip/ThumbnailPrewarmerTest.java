@@ -0,0 +1,109 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThumbnailPrewarmerTest {
+
+	private File catalog;
+	private MemoryThumbnailStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		catalog = Files.createTempDirectory("imagestrip-catalog").toFile();
+		store = new MemoryThumbnailStore();
+		ImageTools.setStore(store);
+		ImageTools.clearCache();
+	}
+
+	@Test
+	public void directoryIsScaledToEverySizeAndDensity() throws Exception {
+		File first = createImage("first.png");
+		File nested = new File(catalog, "nested");
+		nested.mkdir();
+		File second = createImage("nested/second.jpg");
+		Files.write(new File(catalog, "broken.png").toPath(), new byte[10]);
+		Files.write(new File(catalog, "notes.txt").toPath(), new byte[10]);
+
+		ThumbnailPrewarmer prewarmer = new ThumbnailPrewarmer();
+		prewarmer.addSize(110, 110);
+		prewarmer.setMaxPixelDensity(2);
+		prewarmer.setThreads(2);
+
+		ThumbnailPrewarmer.Report report = prewarmer.prewarmDirectory(catalog);
+
+		Assert.assertEquals(4, report.getThumbnails());
+		Assert.assertEquals(2, report.getFailures().size());
+		Assert.assertTrue(report.getFailures().get(0).getSource()
+				.endsWith("broken.png"));
+
+		for (File source : Arrays.asList(first, second)) {
+			for (int size : new int[] { 110, 220 }) {
+				Assert.assertNotNull(store.get(new ThumbnailKey(source
+						.getAbsolutePath(), size, size, ImageEncoding.DEFAULT)));
+			}
+		}
+	}
+
+	@Test
+	public void catalogLargerThanCacheStaysStored() throws Exception {
+		DirectoryThumbnailStore directoryStore = new DirectoryThumbnailStore(
+				Files.createTempDirectory("imagestrip-prewarmed").toFile());
+		ImageTools.setStore(directoryStore);
+
+		ThumbnailCache cache = ImageTools.getCache();
+		int maxEntries = cache.getMaxEntries();
+		cache.setMaxEntries(5);
+
+		try {
+			for (int i = 0; i < 20; i++) {
+				createImage("image" + i + ".png");
+			}
+
+			ThumbnailPrewarmer.Report report = new ThumbnailPrewarmer()
+					.prewarmDirectory(catalog);
+
+			Assert.assertEquals(20, report.getThumbnails());
+			Assert.assertEquals(0, report.getDropped());
+			Assert.assertEquals(20, directoryStore.size());
+		} finally {
+			cache.setMaxEntries(maxEntries);
+		}
+	}
+
+	@Test
+	public void manifestListsFilesAndSkipsComments() throws Exception {
+		File image = createImage("image.png");
+		File manifest = new File(catalog, "manifest.txt");
+		Files.write(manifest.toPath(), Arrays.asList("# catalog", "",
+				image.getAbsolutePath()));
+
+		ThumbnailPrewarmer prewarmer = new ThumbnailPrewarmer();
+		prewarmer.setScaler(ImageScaler.BOX);
+
+		ThumbnailPrewarmer.Report report = prewarmer.prewarmManifest(manifest);
+
+		Assert.assertEquals(1, report.getThumbnails());
+		Assert.assertTrue(report.getFailures().isEmpty());
+		Assert.assertNotNull(store.get(new ThumbnailKey(image
+				.getAbsolutePath(), 110, 110, ImageEncoding.DEFAULT,
+				ImageScaler.BOX)));
+	}
+
+	private File createImage(String name) throws IOException {
+		File file = new File(catalog, name);
+		String format = name.substring(name.lastIndexOf('.') + 1);
+		ImageIO.write(new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB),
+				format, file);
+		return file;
+	}
+}
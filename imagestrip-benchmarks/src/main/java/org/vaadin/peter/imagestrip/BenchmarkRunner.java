@@ -0,0 +1,28 @@
+package org.vaadin.peter.imagestrip;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler so that allocation rate is
+ * reported next to throughput. Accepts the usual JMH command line options,
+ * for example a regular expression selecting the benchmarks to run:
+ *
+ * <pre>
+ * java -jar imagestrip-benchmarks/target/benchmarks.jar Scale -p megapixels=12
+ * </pre>
+ */
+
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class).build();
+
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,51 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures probing the dimensions of source images from their headers.
+ * Throughput should not depend on the size of the image.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DimensionBenchmark {
+
+	@Param({ "1", "12", "50" })
+	public int megapixels;
+
+	@Param({ "jpg", "png" })
+	public String format;
+
+	private File source;
+
+	@Setup(Level.Trial)
+	public void writeSource() throws IOException {
+		source = SourceImages.write(megapixels, format);
+	}
+
+	@Benchmark
+	public Dimension getImageDimension() throws Exception {
+		return ImageTools.getImageDimension(source);
+	}
+}
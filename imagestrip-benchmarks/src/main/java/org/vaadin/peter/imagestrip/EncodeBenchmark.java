@@ -0,0 +1,67 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures encoding of scaled images with the encodings ImageTools supports
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EncodeBenchmark {
+
+	@Param({ "jpg", "progressive", "png" })
+	public String encoding;
+
+	@Param({ "110", "330" })
+	public int maxSize;
+
+	private BufferedImage scaledImage;
+	private ThumbnailKey key;
+	private ByteArrayOutputStream output;
+
+	@Setup(Level.Trial)
+	public void scaleSource() {
+		scaledImage = ImageTools.scaleBufferedImage(SourceImages.generate(1),
+				maxSize, maxSize, false);
+
+		ImageEncoding imageEncoding;
+		if ("png".equals(encoding)) {
+			imageEncoding = ImageEncoding.PNG;
+		} else if ("progressive".equals(encoding)) {
+			imageEncoding = ImageEncoding.progressiveJpeg(0.7f);
+		} else {
+			imageEncoding = ImageEncoding.DEFAULT;
+		}
+
+		key = new ThumbnailKey("benchmark", maxSize, maxSize, imageEncoding);
+		output = new ByteArrayOutputStream(maxSize * maxSize * 4);
+	}
+
+	@Benchmark
+	public int encodeImage() throws IOException {
+		output.reset();
+		ImageTools.encodeImage(scaledImage, key, output);
+		return output.size();
+	}
+}
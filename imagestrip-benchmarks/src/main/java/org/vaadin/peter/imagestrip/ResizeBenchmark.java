@@ -0,0 +1,94 @@
+package org.vaadin.peter.imagestrip;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Measures the whole resize pipeline of ImageTools from reading the source to
+ * storing the encoded thumbnail. Cache and store are reset before every call
+ * so that each call scales the image again.
+ *
+ * URL sources are served by an HTTP server inside the benchmark JVM, so the
+ * results include the fetch layer but not network latency.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ResizeBenchmark {
+
+	@Param({ "1", "12", "50" })
+	public int megapixels;
+
+	@Param({ "jpg", "png" })
+	public String format;
+
+	private File source;
+	private String url;
+	private HttpServer server;
+
+	@Setup(Level.Trial)
+	public void writeSource() throws IOException {
+		source = SourceImages.write(megapixels, format);
+
+		final byte[] bytes = Files.readAllBytes(source.toPath());
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/source", exchange -> {
+			exchange.sendResponseHeaders(200, bytes.length);
+			exchange.getResponseBody().write(bytes);
+			exchange.close();
+		});
+		server.start();
+
+		url = "http://localhost:" + server.getAddress().getPort()
+				+ "/source." + format;
+
+		RemoteImageFetcher fetcher = new RemoteImageFetcher();
+		fetcher.setMaxBytes(RemoteImageFetcher.LARGEST_MAX_BYTES);
+		ImageTools.setFetcher(fetcher);
+	}
+
+	@Setup(Level.Invocation)
+	public void resetStore() {
+		// Memory store keeps disk speed out of the results
+		ImageTools.setStore(new MemoryThumbnailStore());
+	}
+
+	@TearDown(Level.Trial)
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	@Benchmark
+	public Thumbnail resizeFile() throws Exception {
+		return ImageTools.resizeImage(source, 110, 110);
+	}
+
+	@Benchmark
+	public Thumbnail resizeUrl() throws Exception {
+		return ImageTools.resizeImage(url, 110, 110);
+	}
+}
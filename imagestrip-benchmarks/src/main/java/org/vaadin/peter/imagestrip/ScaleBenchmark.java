@@ -0,0 +1,62 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures scaling of an already decoded source image. Source is decoded from
+ * a file of given format so that its raster type matches what ImageIO
+ * produces for real images. Every built-in scaler is measured.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ScaleBenchmark {
+
+	@Param({ "1", "12", "50" })
+	public int megapixels;
+
+	@Param({ "jpg", "png" })
+	public String format;
+
+	@Param({ "110", "330" })
+	public int maxSize;
+
+	@Param({ "default", "nearest", "box", "progressive-bilinear", "lanczos3" })
+	public String scaler;
+
+	private BufferedImage source;
+	private ImageScaler imageScaler;
+
+	@Setup(Level.Trial)
+	public void decodeSource() throws IOException {
+		source = ImageIO.read(SourceImages.write(megapixels, format));
+		imageScaler = ImageScaler.forName(scaler);
+	}
+
+	@Benchmark
+	public BufferedImage scaleBufferedImage() {
+		return ImageTools.scaleBufferedImage(source, maxSize, maxSize, false,
+				imageScaler);
+	}
+}
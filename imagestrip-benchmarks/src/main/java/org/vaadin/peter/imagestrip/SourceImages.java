@@ -0,0 +1,69 @@
+package org.vaadin.peter.imagestrip;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * SourceImages generates photo sized source images for the benchmarks. Images
+ * combine smooth gradients with noise so that encoders cannot compress them
+ * into trivially small files.
+ */
+
+final class SourceImages {
+
+	private SourceImages() {
+	}
+
+	/**
+	 * @param megapixels
+	 * @return image of about given number of megapixels in 4:3 aspect ratio
+	 */
+
+	static BufferedImage generate(int megapixels) {
+		int height = (int) Math.sqrt(megapixels * 1000000.0 * 3 / 4);
+		int width = height * 4 / 3;
+
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(megapixels);
+		int[] row = new int[width];
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int noise = random.nextInt(32);
+				int red = (x * 223 / width + noise) & 0xff;
+				int green = (y * 223 / height + noise) & 0xff;
+				int blue = ((x + y) * 111 / (width + height) + noise) & 0xff;
+				row[x] = red << 16 | green << 8 | blue;
+			}
+			image.setRGB(0, y, width, 1, row, 0, width);
+		}
+
+		return image;
+	}
+
+	/**
+	 * Writes a generated image of given size to a temporary file
+	 *
+	 * @param megapixels
+	 * @param format
+	 * @return file that is deleted when the benchmark JVM exits
+	 * @throws IOException
+	 */
+
+	static File write(int megapixels, String format) throws IOException {
+		File file = File.createTempFile("imagestrip-source-" + megapixels
+				+ "mp", "." + format);
+		file.deleteOnExit();
+
+		if (!ImageIO.write(generate(megapixels), format, file)) {
+			throw new IOException("No writer found for format " + format);
+		}
+
+		return file;
+	}
+}
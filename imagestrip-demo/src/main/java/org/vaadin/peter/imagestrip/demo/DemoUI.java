@@ -2,6 +2,7 @@ package org.vaadin.peter.imagestrip.demo;
 
 import javax.servlet.annotation.WebServlet;
 
+import com.vaadin.annotations.Push;
 import com.vaadin.annotations.Theme;
 import com.vaadin.annotations.Title;
 import com.vaadin.annotations.VaadinServletConfiguration;
@@ -13,6 +14,7 @@ import com.vaadin.ui.UI;
 import com.vaadin.ui.VerticalLayout;
 import org.vaadin.peter.imagestrip.ImageStrip;
 
+@Push
 @Theme("demo")
 @Title("MyComponent Add-on Demo")
 @SuppressWarnings("serial")
@@ -29,6 +31,8 @@ public class DemoUI extends UI
 
         // Initialize our new UI component
         ImageStrip imageStrip = new ImageStrip();
+        // Retina screens load sharper 2x variants, others the 1x images
+        imageStrip.setMaxPixelDensity(2);
         imageStrip
             .addImage(new ExternalResource(
                 "http://i.imgur.com/8c3m5Wo.jpg"));
@@ -38,8 +42,10 @@ public class DemoUI extends UI
         imageStrip
             .addImage(new ExternalResource(
                 "http://i.imgur.com/EJnazue.jpg"));
+        // Slow hosts do not block the UI, a placeholder is shown until
+        // the image has been scaled
         imageStrip
-            .addImage(new ExternalResource(
+            .addImageAsync(new ExternalResource(
                 "http://farm4.staticflickr.com/3159/5743166291_194d90f356_z.jpg"));
 
         imageStrip.setSelectable(true);